@@ -9,19 +9,25 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import io.reactivex.Flowable;
 import io.reactivex.disposables.CompositeDisposable;
 import io.reactivex.disposables.Disposable;
 import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Function;
 import io.reactivex.functions.Predicate;
+import io.reactivex.subscribers.TestSubscriber;
 import nl.qbusict.cupboard.Cupboard;
 import nl.qbusict.cupboard.CupboardBuilder;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 @RunWith(AndroidJUnit4.class)
@@ -29,12 +35,13 @@ public class ChangesTest {
 
 	private static final String TEST_DATABASE = "RxCupboardTest.db";
 
+	private Cupboard cupboard;
 	private SQLiteDatabase db;
 	private RxDatabase rxDatabase;
 
 	@Before
 	public void setUp() throws Exception {
-		Cupboard cupboard = new CupboardBuilder().build();
+		cupboard = new CupboardBuilder().build();
 		cupboard.register(TestEntity.class);
 		cupboard.register(TestEntity2.class);
 		InstrumentationRegistry.getTargetContext().deleteDatabase(TEST_DATABASE);
@@ -473,8 +480,272 @@ public class ChangesTest {
 
 	}
 
+	@Test
+	public void changes_putAllAfterCommit() {
+
+		// Count changes and whether they were received while still inside the batch transaction
+		final AtomicInteger changeCount = new AtomicInteger();
+		final AtomicInteger inTransactionCount = new AtomicInteger();
+		Disposable changes = rxDatabase.changes(TestEntity.class).subscribe(new Consumer<DatabaseChange<TestEntity>>() {
+			@Override
+			public void accept(DatabaseChange<TestEntity> databaseChange) throws Exception {
+				changeCount.getAndIncrement();
+				if (db.inTransaction()) {
+					inTransactionCount.getAndIncrement();
+				}
+			}
+		});
+
+		Flowable.range(1, 20)
+				.map(new Function<Integer, TestEntity>() {
+					@Override
+					public TestEntity apply(Integer integer) throws Exception {
+						TestEntity testEntity = new TestEntity();
+						testEntity.string = "Batch";
+						testEntity.time = integer;
+						return testEntity;
+					}
+				})
+				.to(new Function<Flowable<TestEntity>, Flowable<List<TestEntity>>>() {
+					@Override
+					public Flowable<List<TestEntity>> apply(Flowable<TestEntity> entities) throws Exception {
+						return rxDatabase.putAll(entities, 8);
+					}
+				})
+				.test()
+				.assertValueCount(3);
+
+		assertEquals(20, changeCount.get());
+		assertEquals(0, inTransactionCount.get());
+
+		changes.dispose();
+
+	}
+
+	@Test
+	public void batchedChanges_coalesced() {
+
+		// Batches of (at most) 4 changes, with a time window long enough to never be reached in this test
+		TestSubscriber<List<DatabaseChange<TestEntity>>> batches = rxDatabase.batchedChanges(TestEntity.class, 1, TimeUnit.MINUTES, 4).test();
+
+		final TestEntity removed = new TestEntity();
+		removed.string = "Removed";
+		final TestEntity added = new TestEntity();
+		added.string = "Added";
+
+		// Insert and delete one entity and insert and update another, which together are only a single insert
+		rxDatabase.putDirect(removed);
+		rxDatabase.deleteDirect(removed);
+		rxDatabase.putDirect(added);
+		added.string = "Updated";
+		rxDatabase.putDirect(added);
+
+		batches.assertValueCount(1)
+				.assertValue(new Predicate<List<DatabaseChange<TestEntity>>>() {
+					@Override
+					public boolean test(List<DatabaseChange<TestEntity>> changes) throws Exception {
+						return changes.size() == 1 &&
+								changes.get(0) instanceof DatabaseChange.DatabaseInsert &&
+								changes.get(0).entity() == added &&
+								added._id.equals(changes.get(0).id());
+					}
+				});
+
+		// Deliver a batch to a batch callback
+		final AtomicInteger batchCount = new AtomicInteger();
+		final AtomicInteger updateCount = new AtomicInteger();
+		Disposable changes = rxDatabase.batchedChanges(TestEntity.class, 1, TimeUnit.MINUTES, 2).subscribe(new OnDatabaseChangeBatch<TestEntity>() {
+			@Override
+			public void onBatch(List<DatabaseChange<TestEntity>> changes) {
+				batchCount.getAndIncrement();
+				super.onBatch(changes);
+			}
+
+			@Override
+			public void onUpdate(TestEntity entity) {
+				updateCount.getAndIncrement();
+			}
+		});
+		added.string = "Updated once";
+		rxDatabase.putDirect(added);
+		added.string = "Updated twice";
+		rxDatabase.putDirect(added);
+		assertEquals(1, batchCount.get());
+		assertEquals(1, updateCount.get());
+
+		batches.dispose();
+		changes.dispose();
+
+	}
+
+	@Test
+	public void deletes_byIdAndSelection() {
+
+		final List<DatabaseChange.DatabaseDelete<TestEntity>> deletes = new ArrayList<>();
+		Disposable specificDeletes = rxDatabase.deletes(TestEntity.class).subscribe(new Consumer<DatabaseChange.DatabaseDelete<TestEntity>>() {
+			@Override
+			public void accept(DatabaseChange.DatabaseDelete<TestEntity> databaseDelete) throws Exception {
+				deletes.add(databaseDelete);
+			}
+		});
+
+		final TestEntity byId = new TestEntity();
+		byId.string = "By id";
+		final TestEntity bySelection = new TestEntity();
+		bySelection.string = "By selection";
+		rxDatabase.putDirect(byId);
+		rxDatabase.putDirect(bySelection);
+
+		// Deletes by id report the id and the deleted entity
+		rxDatabase.deleteDirect(TestEntity.class, byId._id);
+		assertEquals(1, deletes.size());
+		assertEquals(byId._id, deletes.get(0).id());
+		assertEquals(byId._id, deletes.get(0).entity()._id);
+		assertEquals("By id", deletes.get(0).entity().string);
+
+		// Id-only deletes report the id, and only an entity with that id when asked for
+		final TestEntity byIdOnly = new TestEntity();
+		byIdOnly.string = "By id only";
+		rxDatabase.putDirect(byIdOnly);
+		RxCupboard.with(cupboard, db, new RxCupboardOptions().idOnlyDeletes(true)).deleteDirect(TestEntity.class, byIdOnly._id);
+		assertEquals(2, deletes.size());
+		assertEquals(byIdOnly._id, deletes.get(1).id());
+		assertEquals(byIdOnly._id, deletes.get(1).entity()._id);
+		assertNull(deletes.get(1).entity().string);
+
+		// Deletes by selection are reported at once as a single bulk delete with all ids
+		final TestEntity alsoBySelection = new TestEntity();
+		alsoBySelection.string = "By selection";
+		rxDatabase.putDirect(alsoBySelection);
+		rxDatabase.delete(TestEntity.class, "string = ?", "By selection")
+				.test()
+				.assertValue(2L);
+		assertEquals(3, deletes.size());
+		assertTrue(deletes.get(2).isBulk());
+		assertEquals(2, deletes.get(2).ids().length);
+		assertEquals((long) bySelection._id, deletes.get(2).ids()[0]);
+		assertEquals((long) alsoBySelection._id, deletes.get(2).ids()[1]);
+
+		specificDeletes.dispose();
+
+	}
+
+	@Test
+	public void changes_backpressure() {
+
+		// A subscriber that requested nothing yet gets the newest 2 of 5 changes with drop oldest...
+		ChangeBackpressure<DatabaseChange<TestEntity>> dropOldest = ChangeBackpressure.dropOldest(2);
+		TestSubscriber<DatabaseChange<TestEntity>> dropOldestChanges = rxDatabase.changes(TestEntity.class, dropOldest).test(0);
+		// ...or the oldest 2 with a bounded buffer
+		ChangeBackpressure<DatabaseChange<TestEntity>> buffer = ChangeBackpressure.buffer(2);
+		TestSubscriber<DatabaseChange<TestEntity>> bufferChanges = rxDatabase.changes(TestEntity.class, buffer).test(0);
+		long[] ids = new long[5];
+		for (int i = 0; i < 5; i++) {
+			ids[i] = rxDatabase.putDirect(new TestEntity());
+		}
+		dropOldestChanges.requestMore(5);
+		dropOldestChanges.assertValueCount(2);
+		assertEquals(ids[3], (long) dropOldestChanges.values().get(0).id());
+		assertEquals(3, dropOldest.overflowCount());
+		bufferChanges.requestMore(5);
+		bufferChanges.assertValueCount(2);
+		assertEquals(ids[0], (long) bufferChanges.values().get(0).id());
+		assertEquals(3, buffer.overflowCount());
+
+		// Only the latest change per entity is kept, without counting as overflow
+		ChangeBackpressure<DatabaseChange<TestEntity>> latest = ChangeBackpressure.latestPerEntity(2);
+		TestSubscriber<DatabaseChange<TestEntity>> latestChanges = rxDatabase.changes(TestEntity.class, latest).test(0);
+		TestEntity updated = new TestEntity();
+		rxDatabase.putDirect(updated);
+		for (int i = 0; i < 3; i++) {
+			updated.time = i;
+			rxDatabase.putDirect(updated);
+		}
+		rxDatabase.deleteDirect(TestEntity.class, ids[0]);
+		latestChanges.requestMore(5);
+		latestChanges.assertValueCount(2);
+		assertTrue(latestChanges.values().get(0) instanceof DatabaseChange.DatabaseUpdate);
+		assertTrue(latestChanges.values().get(1) instanceof DatabaseChange.DatabaseDelete);
+		assertEquals(0, latest.overflowCount());
+
+		dropOldestChanges.dispose();
+		bufferChanges.dispose();
+		latestChanges.dispose();
+
+	}
+
+	@Test
+	public void changes_concurrentWriters() throws InterruptedException {
+
+		// Changes from several writer threads still arrive one at a time
+		final AtomicInteger emitting = new AtomicInteger();
+		final AtomicInteger overlaps = new AtomicInteger();
+		final AtomicInteger received = new AtomicInteger();
+		Disposable changes = rxDatabase.changes(TestEntity.class).subscribe(new Consumer<DatabaseChange<TestEntity>>() {
+			@Override
+			public void accept(DatabaseChange<TestEntity> databaseChange) throws Exception {
+				if (emitting.getAndIncrement() != 0) {
+					overlaps.incrementAndGet();
+				}
+				received.incrementAndGet();
+				emitting.decrementAndGet();
+			}
+		});
+
+		Thread[] writers = new Thread[4];
+		for (int i = 0; i < writers.length; i++) {
+			writers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 50; j++) {
+						rxDatabase.putDirect(new TestEntity());
+					}
+				}
+			});
+			writers[i].start();
+		}
+		for (Thread writer : writers) {
+			writer.join();
+		}
+
+		assertEquals(200, received.get());
+		assertEquals(0, overlaps.get());
+
+		changes.dispose();
+
+	}
+
+	@Test
+	public void changes_sharedBetweenInstances() {
+
+		// Another RxDatabase on the same database and Cupboard publishes to the same change streams
+		RxDatabase other = RxCupboard.with(cupboard, db);
+		TestSubscriber<DatabaseChange<TestEntity>> changes = rxDatabase.changes(TestEntity.class).test();
+		other.putDirect(new TestEntity());
+		changes.assertValueCount(1);
+
+		// But not a different Cupboard
+		Cupboard otherCupboard = new CupboardBuilder().build();
+		otherCupboard.register(TestEntity.class);
+		RxCupboard.with(otherCupboard, db).putDirect(new TestEntity());
+		changes.assertValueCount(1);
+
+		// A subscriber keeps its streams alive, even when no instance on that Cupboard is referenced anymore
+		TestSubscriber<DatabaseChange> untyped = RxCupboard.with(otherCupboard, db).changes().test();
+		System.gc();
+		System.runFinalization();
+		RxCupboard.with(otherCupboard, db).putDirect(new TestEntity());
+		untyped.assertValueCount(1);
+
+		untyped.dispose();
+		changes.dispose();
+		other.close();
+
+	}
+
 	@After
 	public void tearDown() throws Exception {
+		rxDatabase.close();
 		db.close();
 	}
 
@@ -8,10 +8,19 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import io.reactivex.Flowable;
+import io.reactivex.Scheduler;
 import io.reactivex.functions.Predicate;
+import io.reactivex.schedulers.Schedulers;
 import nl.qbusict.cupboard.Cupboard;
 import nl.qbusict.cupboard.CupboardBuilder;
 
+import static junit.framework.TestCase.assertEquals;
+
 @RunWith(AndroidJUnit4.class)
 public class ContentProviderTest {
 
@@ -43,6 +52,32 @@ public class ContentProviderTest {
 
 	}
 
+	@Test
+	public void contentProvider_consumersOnWriter() {
+
+		// A write scheduler that only collects the work, so the provider itself is never written to
+		final List<Runnable> scheduled = new ArrayList<>();
+		Scheduler writer = Schedulers.from(new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				scheduled.add(command);
+			}
+		});
+		RxContentProvider rxContentProvider = RxCupboard.with(cupboard, InstrumentationRegistry.getTargetContext(),
+				ContactsContract.Contacts.CONTENT_URI, new RxCupboardOptions().writeScheduler(writer));
+
+		// The consumers hand their writes to the writer, rather than writing on the emitting thread
+		Contact contact = new Contact();
+		contact._id = 1L;
+		Flowable.just(contact)
+				.doOnNext(rxContentProvider.<Contact>put())
+				.doOnNext(rxContentProvider.<Contact>delete())
+				.test()
+				.assertComplete();
+		assertEquals(2, scheduled.size());
+
+	}
+
 	public static class Contact {
 
 		public Long _id;
@@ -1,6 +1,10 @@
 package nl.nl2312.rxcupboard2;
 
+import android.content.ContentValues;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Debug;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
 import android.util.Pair;
@@ -10,16 +14,31 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Completable;
+import io.reactivex.CompletableSource;
 import io.reactivex.Flowable;
 import io.reactivex.Single;
 import io.reactivex.SingleSource;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Action;
 import io.reactivex.functions.BiFunction;
 import io.reactivex.functions.Consumer;
 import io.reactivex.functions.Function;
 import io.reactivex.functions.Predicate;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.Schedulers;
 import nl.qbusict.cupboard.Cupboard;
 import nl.qbusict.cupboard.CupboardBuilder;
+import nl.qbusict.cupboard.convert.EntityConverter;
+import nl.qbusict.cupboard.convert.FieldConverter;
 
+import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertTrue;
 import static junit.framework.TestCase.assertEquals;
 import static org.junit.Assert.assertNotNull;
@@ -31,12 +50,13 @@ public class CrudTest {
 
 	private static final String TEST_DATABASE = "RxCupboardTest.db";
 
+	private Cupboard cupboard;
 	private SQLiteDatabase db;
 	private RxDatabase rxDatabase;
 
 	@Before
 	public void setUp() throws Exception {
-		Cupboard cupboard = new CupboardBuilder().build();
+		cupboard = new CupboardBuilder().build();
 		cupboard.register(TestEntity.class);
 		InstrumentationRegistry.getTargetContext().deleteDatabase(TEST_DATABASE);
 		db = new TestDbHelper(InstrumentationRegistry.getTargetContext(), cupboard, TEST_DATABASE).getWritableDatabase();
@@ -201,6 +221,28 @@ public class CrudTest {
 				.assertTerminated()
 				.assertNoValues();
 
+		// With a write scheduler, the consumers write on the writer rather than on the emitting thread
+		final List<Thread> writers = new ArrayList<>();
+		Disposable changes = rxDatabase.changes(TestEntity.class).subscribe(new Consumer<DatabaseChange<TestEntity>>() {
+			@Override
+			public void accept(DatabaseChange<TestEntity> change) throws Exception {
+				writers.add(Thread.currentThread());
+			}
+		});
+		RxDatabase background = RxCupboard.with(cupboard, db, new RxCupboardOptions().writeScheduler(Schedulers.single()));
+		Single.just(new TestEntity()).doOnSuccess(background.<TestEntity>put())
+				.test()
+				.assertTerminated();
+		// Counting on the same single thread runs only after the queued put
+		background.count(TestEntity.class)
+				.subscribeOn(Schedulers.single())
+				.test()
+				.awaitDone(5, TimeUnit.SECONDS)
+				.assertValue(1L);
+		assertEquals(1, writers.size());
+		assertNotSame(Thread.currentThread(), writers.get(0));
+		changes.dispose();
+
 	}
 
 	@Test
@@ -289,8 +331,459 @@ public class CrudTest {
 				.assertValue(10L);
 	}
 
+	@Test
+	public void db_countExists() {
+
+		final TestEntity first = new TestEntity();
+		first.string = "First";
+		final TestEntity second = new TestEntity();
+		second.string = "Second";
+		rxDatabase.putDirect(first);
+		rxDatabase.putDirect(second);
+
+		// Counts with and without selection, repeated to use the cached statements
+		for (int i = 0; i < 2; i++) {
+			rxDatabase.count(TestEntity.class)
+					.test()
+					.assertValue(2L);
+			rxDatabase.count(TestEntity.class, "string = ?", "First")
+					.test()
+					.assertValue(1L);
+			rxDatabase.count(TestEntity.class, "string = ?", "Third")
+					.test()
+					.assertValue(0L);
+		}
+
+		rxDatabase.exists(TestEntity.class, first._id)
+				.test()
+				.assertValue(true);
+		rxDatabase.delete(TestEntity.class, first._id)
+				.test()
+				.assertValue(true);
+		rxDatabase.exists(TestEntity.class, first._id)
+				.test()
+				.assertValue(false);
+		rxDatabase.delete(TestEntity.class, first._id)
+				.test()
+				.assertValue(false);
+
+	}
+
+	@Test
+	public void db_preparedWrites() {
+
+		RxDatabase prepared = RxCupboard.with(cupboard, db, new RxCupboardOptions().preparedWrites(true));
+
+		// Insert through the compiled insert statement assigns an id
+		final TestEntity testEntity = new TestEntity();
+		testEntity.string = "Prepared";
+		testEntity.time = 1;
+		long assigned = prepared.putDirect(testEntity);
+		assertNotNull(testEntity._id);
+		assertEquals((long) testEntity._id, assigned);
+
+		// Update keeps the id and replaces the row
+		testEntity.string = "Prepared update";
+		testEntity.time = 2;
+		assertEquals(assigned, prepared.putDirect(testEntity));
+		prepared.get(TestEntity.class, assigned)
+				.test()
+				.assertValue(new Predicate<TestEntity>() {
+					@Override
+					public boolean test(TestEntity stored) throws Exception {
+						return stored.string.equals("Prepared update") && stored.time == 2;
+					}
+				});
+
+		// Explicit ids and null values are stored as well
+		final TestEntity explicit = new TestEntity();
+		explicit._id = 123456L;
+		prepared.putDirect(explicit);
+		prepared.get(TestEntity.class, 123456L)
+				.test()
+				.assertValue(new Predicate<TestEntity>() {
+					@Override
+					public boolean test(TestEntity stored) throws Exception {
+						return stored.string == null && stored.time == 0;
+					}
+				});
+		prepared.count(TestEntity.class)
+				.test()
+				.assertValue(2L);
+
+		prepared.close();
+
+	}
+
+	@Test
+	public void db_writeJoinColumns() {
+
+		// A field converter of join type makes a read-only column, which is not part of the table
+		Cupboard joining = new CupboardBuilder().registerFieldConverter(TestJoinEntity.Children.class, new FieldConverter<TestJoinEntity.Children>() {
+			@Override
+			public TestJoinEntity.Children fromCursorValue(Cursor cursor, int columnIndex) {
+				if (cursor.isNull(columnIndex)) {
+					return null;
+				}
+				TestJoinEntity.Children children = new TestJoinEntity.Children();
+				children.count = cursor.getLong(columnIndex);
+				return children;
+			}
+
+			@Override
+			public void toContentValue(TestJoinEntity.Children value, String key, ContentValues values) {
+				throw new UnsupportedOperationException("Join columns are never written");
+			}
+
+			@Override
+			public EntityConverter.ColumnType getColumnType() {
+				return EntityConverter.ColumnType.JOIN;
+			}
+		}).build();
+		joining.register(TestJoinEntity.class);
+		joining.withDatabase(db).createTables();
+
+		// Both the prepared statements and Cupboard's own put should write only the table's columns
+		RxDatabase plain = RxCupboard.with(joining, db);
+		RxDatabase prepared = RxCupboard.with(joining, db, new RxCupboardOptions().preparedWrites(true));
+		for (RxDatabase writer : new RxDatabase[]{plain, prepared}) {
+			final TestJoinEntity testEntity = new TestJoinEntity();
+			testEntity.string = "Join";
+			long id = writer.putDirect(testEntity);
+			testEntity.string = "Join update";
+			assertEquals(id, writer.putDirect(testEntity));
+			writer.get(TestJoinEntity.class, id)
+					.test()
+					.assertValue(new Predicate<TestJoinEntity>() {
+						@Override
+						public boolean test(TestJoinEntity stored) throws Exception {
+							return stored.string.equals("Join update") && stored.children == null;
+						}
+					});
+		}
+		prepared.count(TestJoinEntity.class)
+				.test()
+				.assertValue(2L);
+
+		prepared.close();
+		plain.close();
+
+	}
+
+	@Test
+	public void db_preparedWritesConcurrent() throws InterruptedException {
+
+		final RxDatabase prepared = RxCupboard.with(cupboard, db, new RxCupboardOptions().preparedWrites(true));
+
+		// Another thread puts (and waits for the connection) while a transaction puts the same class before and after it
+		final CountDownLatch inTransaction = new CountDownLatch(1);
+		Thread other = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					inTransaction.await();
+					prepared.putDirect(new TestEntity());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		other.start();
+		TestObserver<Void> transaction = prepared.inTransaction(new Function<RxDatabase, CompletableSource>() {
+			@Override
+			public CompletableSource apply(RxDatabase tx) throws Exception {
+				return tx.put(new TestEntity()).toCompletable()
+						.andThen(Completable.fromAction(new Action() {
+							@Override
+							public void run() throws Exception {
+								inTransaction.countDown();
+								Thread.sleep(100);
+							}
+						}))
+						.andThen(tx.put(new TestEntity()).toCompletable());
+			}
+		}).subscribeOn(Schedulers.io()).test();
+
+		// Neither writer may block the other
+		assertTrue(transaction.awaitTerminalEvent(5, TimeUnit.SECONDS));
+		transaction.assertComplete();
+		other.join(5000);
+		assertFalse(other.isAlive());
+		prepared.count(TestEntity.class)
+				.test()
+				.assertValue(3L);
+
+		prepared.close();
+
+	}
+
+	@Test
+	public void db_putAllDeleteAll() {
+
+		List<TestEntity> entities = new ArrayList<>();
+		for (int i = 1; i <= 25; i++) {
+			TestEntity e = new TestEntity();
+			e.string = "Batch";
+			e.time = i;
+			entities.add(e);
+		}
+
+		// Store 25 items in batches of 10, emitting one list per committed batch
+		rxDatabase.putAll(entities, 10)
+				.test()
+				.assertTerminated()
+				.assertValueCount(3)
+				.assertValueAt(2, new Predicate<List<TestEntity>>() {
+					@Override
+					public boolean test(List<TestEntity> batch) throws Exception {
+						return batch.size() == 5;
+					}
+				});
+
+		rxDatabase.count(TestEntity.class)
+				.test()
+				.assertValue(25L);
+		for (TestEntity entity : entities) {
+			assertNotNull(entity._id);
+		}
+
+		// Delete them again in a single batch
+		rxDatabase.deleteAll(entities)
+				.test()
+				.assertTerminated()
+				.assertValueCount(1);
+
+		rxDatabase.count(TestEntity.class)
+				.test()
+				.assertValue(0L);
+
+	}
+
+	@Test
+	public void db_writeAheadLogging() {
+
+		final RxDatabase wal = RxCupboard.with(cupboard, db, new RxCupboardOptions().writeAheadLogging(4));
+		final List<Long> published = new ArrayList<>();
+		Disposable changes = wal.changes(TestEntity.class).subscribe(new Consumer<DatabaseChange<TestEntity>>() {
+			@Override
+			public void accept(DatabaseChange<TestEntity> change) throws Exception {
+				published.add(change.id());
+			}
+		});
+
+		// Puts from many threads are serialized on the writer and published in commit (so id) order
+		Flowable.range(1, 20)
+				.flatMapSingle(new Function<Integer, SingleSource<TestEntity>>() {
+					@Override
+					public SingleSource<TestEntity> apply(Integer integer) throws Exception {
+						TestEntity testEntity = new TestEntity();
+						testEntity.time = integer;
+						return wal.put(testEntity);
+					}
+				})
+				.test()
+				.awaitDone(5, TimeUnit.SECONDS)
+				.assertValueCount(20);
+		assertEquals(20, published.size());
+		for (int i = 1; i < published.size(); i++) {
+			assertTrue(published.get(i) > published.get(i - 1));
+		}
+
+		// Reads run in parallel on the reader pool
+		Flowable.range(1, 20)
+				.flatMapSingle(new Function<Integer, SingleSource<Long>>() {
+					@Override
+					public SingleSource<Long> apply(Integer integer) throws Exception {
+						return wal.count(TestEntity.class, "time <= ?", Integer.toString(integer));
+					}
+				})
+				.test()
+				.awaitDone(5, TimeUnit.SECONDS)
+				.assertValueCount(20);
+
+		changes.dispose();
+		wal.close();
+
+	}
+
+	@Test
+	public void db_entityCache() {
+
+		RxDatabase cached = RxCupboard.with(cupboard, db, new RxCupboardOptions().entityCache(2));
+		TestEntity first = new TestEntity();
+		first.string = "First";
+		long firstId = cached.putDirect(first);
+
+		// A get populates the cache, so another get returns the same instance
+		TestEntity loaded = cached.get(TestEntity.class, firstId).blockingGet();
+		assertTrue(loaded == cached.get(TestEntity.class, firstId).blockingGet());
+		assertEquals(1, cached.cacheStats().misses());
+		assertEquals(1, cached.cacheStats().hits());
+
+		// Updates and deletes evict the cached entity, so the next get reads the database again
+		TestEntity update = new TestEntity();
+		update._id = firstId;
+		update.string = "Update";
+		cached.putDirect(update);
+		TestEntity reloaded = cached.get(TestEntity.class, firstId).blockingGet();
+		assertTrue(reloaded != loaded && reloaded != update);
+		assertEquals("Update", reloaded.string);
+		cached.deleteDirect(TestEntity.class, firstId);
+		cached.get(TestEntity.class, firstId)
+				.test()
+				.assertTerminated()
+				.assertNoValues();
+		assertEquals(3, cached.cacheStats().misses());
+
+		// Only the 2 most recently used entities are kept
+		for (int i = 0; i < 3; i++) {
+			cached.get(TestEntity.class, cached.putDirect(new TestEntity())).blockingGet();
+		}
+		assertEquals(2, cached.cacheStats().size());
+		assertEquals(1, cached.cacheStats().evictions());
+
+		// Deleting by selection invalidates as well
+		cached.deleteAll(TestEntity.class).blockingGet();
+		assertEquals(0, cached.cacheStats().size());
+		assertNull(rxDatabase.cacheStats());
+
+		// Instances with the same cache options share one cache
+		RxDatabase alsoCached = RxCupboard.with(cupboard, db, new RxCupboardOptions().entityCache(2));
+		assertEquals(cached.cacheStats().misses(), alsoCached.cacheStats().misses());
+
+		cached.close();
+
+	}
+
+	@Test
+	public void db_entityCacheConcurrentWrites() throws InterruptedException {
+
+		final RxDatabase cached = RxCupboard.with(cupboard, db, new RxCupboardOptions().entityCache(10));
+		TestEntity testEntity = new TestEntity();
+		final long id = cached.putDirect(testEntity);
+
+		// Writers of the same id may publish their changes in another order than they committed them
+		final int writers = 4;
+		final int writes = 100;
+		final CountDownLatch done = new CountDownLatch(writers);
+		for (int w = 0; w < writers; w++) {
+			final int writer = w;
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < writes; i++) {
+						TestEntity update = new TestEntity();
+						update._id = id;
+						update.time = writer * writes + i;
+						cached.putDirect(update);
+						cached.get(TestEntity.class, id).blockingGet();
+					}
+					done.countDown();
+				}
+			}).start();
+		}
+		assertTrue(done.await(30, TimeUnit.SECONDS));
+
+		// Whatever the cache holds afterwards is what was committed last
+		TestEntity stored = rxDatabase.get(TestEntity.class, id).blockingGet();
+		assertEquals(stored.time, cached.get(TestEntity.class, id).blockingGet().time);
+
+		cached.close();
+
+	}
+
+	@Test
+	public void db_getAll() {
+
+		// Insert 1100 entities, so the ids span three IN queries
+		final long[] ids = new long[1101];
+		rxDatabase.putAll(Flowable.range(1, 1100).map(new Function<Integer, TestEntity>() {
+			@Override
+			public TestEntity apply(Integer integer) throws Exception {
+				TestEntity testEntity = new TestEntity();
+				testEntity.time = integer;
+				return testEntity;
+			}
+		})).blockingSubscribe(new Consumer<List<TestEntity>>() {
+			@Override
+			public void accept(List<TestEntity> batch) throws Exception {
+				for (TestEntity testEntity : batch) {
+					ids[(int) testEntity.time - 1] = testEntity._id;
+				}
+			}
+		});
+		// One id that does not exist is skipped
+		ids[1100] = -1;
+
+		rxDatabase.getAll(TestEntity.class, ids)
+				.test()
+				.assertValueCount(1100);
+		rxDatabase.getAll(TestEntity.class, Flowable.just(ids[0], ids[1099], -1L))
+				.test()
+				.assertValueCount(2);
+		Map<Long, TestEntity> byId = rxDatabase.getAllById(TestEntity.class, new long[]{ids[5], ids[600]}).blockingGet();
+		assertEquals(2, byId.size());
+		assertEquals(601, byId.get(ids[600]).time);
+
+	}
+
+	@Test
+	public void db_writeAllocations() {
+
+		RxDatabase prepared = RxCupboard.with(cupboard, db, new RxCupboardOptions().preparedWrites(true));
+		// A subscriber to another class should not make writes of this class create change events
+		Disposable otherChanges = prepared.changes(TestEntity2.class).subscribe();
+		final int writes = 1000;
+
+		// Warm up both paths, so statements are compiled and metadata resolved
+		TestEntity testEntity = new TestEntity();
+		testEntity.string = "Allocation";
+		testEntity.time = 1;
+		long id = prepared.putDirect(testEntity);
+		SQLiteStatement raw = db.compileStatement("insert or replace into TestEntity (_id, string, time) values (?, ?, ?)");
+		writeRaw(raw, id, 1);
+
+		// Large, varying times, which are never served from the small Long cache when boxed
+		long time = System.currentTimeMillis();
+
+		// Baseline: what the platform itself allocates to execute the same writes through a compiled statement
+		Debug.resetThreadAllocCount();
+		Debug.startAllocCounting();
+		for (int i = 0; i < writes; i++) {
+			writeRaw(raw, id, time + i);
+		}
+		Debug.stopAllocCounting();
+		int baseline = Debug.getThreadAllocCount();
+
+		Debug.resetThreadAllocCount();
+		Debug.startAllocCounting();
+		for (int i = 0; i < writes; i++) {
+			testEntity.time = time + i;
+			prepared.putDirect(testEntity);
+		}
+		Debug.stopAllocCounting();
+		int measured = Debug.getThreadAllocCount();
+
+		// The converter boxes the primitive time into the ContentValues, once per write; nothing else may be added
+		assertTrue("Allocated " + measured + " versus " + baseline, measured - baseline <= writes);
+
+		raw.close();
+		otherChanges.dispose();
+		prepared.close();
+
+	}
+
+	private void writeRaw(SQLiteStatement statement, long id, long time) {
+		statement.clearBindings();
+		statement.bindLong(1, id);
+		statement.bindString(2, "Allocation");
+		statement.bindLong(3, time);
+		statement.executeInsert();
+	}
+
 	@After
 	public void tearDown() throws Exception {
+		rxDatabase.close();
 		db.close();
 	}
 
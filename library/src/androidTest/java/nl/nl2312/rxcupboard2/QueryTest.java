@@ -11,11 +11,19 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
 import io.reactivex.Flowable;
 import io.reactivex.functions.BiFunction;
 import io.reactivex.functions.Consumer;
 import io.reactivex.functions.Function;
 import io.reactivex.functions.Predicate;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subscribers.TestSubscriber;
 import nl.qbusict.cupboard.Cupboard;
 import nl.qbusict.cupboard.CupboardBuilder;
 
@@ -35,6 +43,7 @@ public class QueryTest {
 	public void setUp() throws Exception {
 		cupboard = new CupboardBuilder().build();
 		cupboard.register(TestEntity.class);
+		cupboard.register(TestChildEntity.class);
 		InstrumentationRegistry.getTargetContext().deleteDatabase(TEST_DATABASE);
 		db = new TestDbHelper(InstrumentationRegistry.getTargetContext(), cupboard, TEST_DATABASE).getWritableDatabase();
 		rxDatabase = RxCupboard.with(cupboard, db);
@@ -137,6 +146,123 @@ public class QueryTest {
 
 	}
 
+	@Test
+	public void testProjection() {
+
+		// Partial entities only have the queried columns populated
+		rxDatabase.queryColumns(TestEntity.class, new String[]{"_id", "time"}, "_id <= ?", Integer.toString(5))
+				.test()
+				.assertValueCount(5)
+				.assertValueAt(4, new Predicate<TestEntity>() {
+					@Override
+					public boolean test(TestEntity testEntity) throws Exception {
+						return testEntity._id == 5 && testEntity.string == null && testEntity.time == 5;
+					}
+				});
+
+		// Rows hold just the queried values, and the cursor is closed after take()
+		rxDatabase.queryRows(TestEntity.class, new String[]{"_id", "string"}, null)
+				.take(3)
+				.test()
+				.assertValueCount(3)
+				.assertValueAt(2, new Predicate<Row>() {
+					@Override
+					public boolean test(Row row) throws Exception {
+						return row.size() == 2 && row.getLong("_id") == 3 && row.getString(1).equals("Test") && row.indexOf("time") < 0;
+					}
+				});
+
+	}
+
+	@Test
+	public void testPrimitiveColumns() {
+
+		// Ids and column values are read straight into primitive arrays
+		long[] ids = rxDatabase.queryIds(TestEntity.class, "_id > ?", Integer.toString(7)).blockingGet();
+		assertTrue(Arrays.equals(new long[]{8, 9, 10}, ids));
+		long[] times = rxDatabase.queryLongs(TestEntity.class, "time", "time desc", "time <= ?", Integer.toString(3)).blockingGet();
+		assertTrue(Arrays.equals(new long[]{3, 2, 1}, times));
+		int[] timeInts = rxDatabase.queryInts(TestEntity.class, "time", null, "_id = ?", Integer.toString(4)).blockingGet();
+		assertTrue(Arrays.equals(new int[]{4}, timeInts));
+		double[] timeDoubles = rxDatabase.queryDoubles(TestEntity.class, "time", null, "_id = ?", Integer.toString(2)).blockingGet();
+		assertTrue(Arrays.equals(new double[]{2}, timeDoubles));
+
+	}
+
+	@Test
+	public void testAggregates() {
+
+		rxDatabase.sum(TestEntity.class, "time", null)
+				.test()
+				.assertValue(55d);
+		rxDatabase.sum(TestEntity.class, "time", "time > ?", Integer.toString(10))
+				.test()
+				.assertValue(0d);
+		rxDatabase.min(TestEntity.class, "time", "time > ?", Integer.toString(3))
+				.test()
+				.assertValue(4d);
+		rxDatabase.max(TestEntity.class, "time", null)
+				.test()
+				.assertValue(10d);
+		rxDatabase.avg(TestEntity.class, "time", "time <= ?", Integer.toString(4))
+				.test()
+				.assertValue(2.5d);
+		rxDatabase.avg(TestEntity.class, "time", "time > ?", Integer.toString(10))
+				.test()
+				.assertComplete()
+				.assertNoValues();
+
+		// Grouped by the (single) string value
+		Map<String, Long> counts = rxDatabase.countBy(TestEntity.class, "string", null).blockingGet();
+		assertTrue(counts.size() == 1 && counts.get("Test") == 10L);
+		Map<String, Double> sums = rxDatabase.sumBy(TestEntity.class, "string", "time", "time <= ?", Integer.toString(3)).blockingGet();
+		assertTrue(sums.size() == 1 && sums.get("Test") == 6d);
+
+	}
+
+	@Test
+	public void testWithChildren() {
+
+		// Two children for every even parent
+		for (long parent = 2; parent <= 10; parent += 2) {
+			for (int i = 0; i < 2; i++) {
+				TestChildEntity child = new TestChildEntity();
+				child.parent = parent;
+				child.string = "Child " + i;
+				rxDatabase.putDirect(child);
+			}
+		}
+
+		// Parents keep their order and are related to their children in batches of 3
+		rxDatabase.withChildren(rxDatabase.query(TestEntity.class), TestChildEntity.class, "parent", 3)
+				.test()
+				.assertValueCount(10)
+				.assertValueAt(0, new Predicate<Related<TestEntity, TestChildEntity>>() {
+					@Override
+					public boolean test(Related<TestEntity, TestChildEntity> related) throws Exception {
+						return related.parent()._id == 1 && related.children().isEmpty();
+					}
+				})
+				.assertValueAt(9, new Predicate<Related<TestEntity, TestChildEntity>>() {
+					@Override
+					public boolean test(Related<TestEntity, TestChildEntity> related) throws Exception {
+						return related.parent()._id == 10 && related.children().size() == 2 && related.children().get(1).parent == 10;
+					}
+				});
+
+		// The foreign key column is matched regardless of case, like SQL does
+		rxDatabase.withChildren(rxDatabase.query(TestEntity.class), TestChildEntity.class, "PARENT")
+				.test()
+				.assertValueCount(10)
+				.assertValueAt(1, new Predicate<Related<TestEntity, TestChildEntity>>() {
+					@Override
+					public boolean test(Related<TestEntity, TestChildEntity> related) throws Exception {
+						return related.parent()._id == 2 && related.children().size() == 2;
+					}
+				});
+
+	}
+
 	@Test
 	public void testReactivePull() {
 
@@ -155,8 +281,225 @@ public class QueryTest {
 
 	}
 
+	@Test
+	public void testColdQuery() {
+
+		// The query is only executed when subscribed to, so it sees the item stored after assembly
+		Flowable<TestEntity> query = rxDatabase.query(TestEntity.class);
+		TestEntity added = new TestEntity();
+		added.string = "Added";
+		rxDatabase.put(added).blockingGet();
+		query.test().assertValueCount(11);
+
+		// With a reader scheduler the query runs off the subscribing thread
+		RxDatabase background = RxCupboard.with(cupboard, db, new RxCupboardOptions().backgroundSchedulers());
+		background.query(TestEntity.class)
+				.test()
+				.awaitDone(5, TimeUnit.SECONDS)
+				.assertValueCount(11);
+		background.close();
+
+	}
+
+	@Test
+	public void testCachedQuery() {
+
+		RxDatabase cached = RxCupboard.with(cupboard, db, new RxCupboardOptions().queryCache(10));
+
+		// Subscribers of the same query share one result
+		List<TestEntity> first = cached.cachedQuery(TestEntity.class, "time desc", 5, null).blockingGet();
+		assertTrue(first.size() == 5 && first.get(0).time == 10);
+		assertTrue(first == cached.cachedQuery(TestEntity.class, "time desc", 5, null).blockingGet());
+		assertTrue(first != cached.cachedQuery(TestEntity.class, "time desc", 4, null).blockingGet());
+
+		// Until an entity of the queried class changes
+		TestEntity added = new TestEntity();
+		added.time = 11;
+		cached.putDirect(added);
+		List<TestEntity> requeried = cached.cachedQuery(TestEntity.class, "time desc", 5, null).blockingGet();
+		assertTrue(requeried != first && requeried.get(0).time == 11);
+
+		cached.close();
+
+	}
+
+	@Test
+	public void testParallelQuery() {
+
+		// Add another 590 items, so the 600 rows are converted in 3 chunks
+		rxDatabase.putAll(Flowable.range(11, 590).map(new Function<Integer, TestEntity>() {
+			@Override
+			public TestEntity apply(Integer integer) throws Exception {
+				TestEntity testEntity = new TestEntity();
+				testEntity.string = "Test";
+				testEntity.time = integer;
+				return testEntity;
+			}
+		})).blockingSubscribe();
+
+		// Ordered, entities are emitted in query order
+		rxDatabase.parallelQuery(TestEntity.class, 3, true, "time > ?", Integer.toString(0))
+				.scan(0L, new BiFunction<Long, TestEntity, Long>() {
+					@Override
+					public Long apply(Long previous, TestEntity testEntity) throws Exception {
+						if (testEntity.time != previous + 1 || !testEntity.string.equals("Test")) {
+							throw new IllegalStateException("Unexpected " + testEntity.time + " after " + previous);
+						}
+						return testEntity.time;
+					}
+				})
+				.test()
+				.awaitDone(5, TimeUnit.SECONDS)
+				.assertNoErrors()
+				.assertValueCount(601);
+
+		// Unordered, all entities are still emitted
+		rxDatabase.parallelQuery(TestEntity.class, 3, false, null)
+				.test()
+				.awaitDone(5, TimeUnit.SECONDS)
+				.assertValueCount(600);
+
+	}
+
+	@Test
+	public void testPagedQuery() {
+
+		// All 10 items, read in pages of 3 ordered by id
+		rxDatabase.pagedQuery(TestEntity.class, 3)
+				.scan(0, accumulator)
+				.test()
+				.assertValues(0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+
+		// Items with id > 2 in reverse time order, of which only the first 4 are read (so only 2 pages queried)
+		rxDatabase.pagedQuery(TestEntity.class, 2, "time desc", "_id > ?", Integer.toString(2))
+				.take(4)
+				.test()
+				.assertValueCount(4)
+				.assertValueAt(0, new Predicate<TestEntity>() {
+					@Override
+					public boolean test(TestEntity testEntity) throws Exception {
+						return testEntity.time == 10;
+					}
+				})
+				.assertValueAt(3, new Predicate<TestEntity>() {
+					@Override
+					public boolean test(TestEntity testEntity) throws Exception {
+						return testEntity.time == 7;
+					}
+				});
+
+		// Keyset paging with a selection
+		rxDatabase.pagedQuery(TestEntity.class, 4, null, "time <= ?", Integer.toString(9))
+				.test()
+				.assertValueCount(9);
+
+	}
+
+	@Test
+	public void testObserveQuery() {
+
+		// Emit the 5 items with time > 5 directly, without debounce and synchronously
+		TestSubscriber<List<TestEntity>> results = rxDatabase.observeQuery(TestEntity.class, 0, TimeUnit.MILLISECONDS,
+				Schedulers.trampoline(), "time > ?", Integer.toString(5)).test();
+		results.assertValueCount(1)
+				.assertValueAt(0, new Predicate<List<TestEntity>>() {
+					@Override
+					public boolean test(List<TestEntity> testEntities) throws Exception {
+						return testEntities.size() == 5;
+					}
+				});
+
+		// Adding a matching item causes a requery that includes it
+		TestEntity added = new TestEntity();
+		added.string = "Added";
+		added.time = 20;
+		rxDatabase.putDirect(added);
+		results.assertValueCount(2)
+				.assertValueAt(1, new Predicate<List<TestEntity>>() {
+					@Override
+					public boolean test(List<TestEntity> testEntities) throws Exception {
+						return testEntities.size() == 6;
+					}
+				});
+
+		// Changes that leave the result the same (storing the same values, or a non-matching item) do not emit again
+		rxDatabase.putDirect(added);
+		TestEntity other = new TestEntity();
+		other.string = "Other";
+		other.time = 1;
+		rxDatabase.putDirect(other);
+		results.assertValueCount(2);
+
+		results.dispose();
+
+	}
+
+	@Test
+	public void testLiveList() {
+
+		// Keep the items with time > 5, latest time first, applying changes synchronously
+		TestSubscriber<ListDiff<TestEntity>> diffs = rxDatabase.liveList(TestEntity.class, new Predicate<TestEntity>() {
+			@Override
+			public boolean test(TestEntity testEntity) throws Exception {
+				return testEntity.time > 5;
+			}
+		}, new Comparator<TestEntity>() {
+			@Override
+			public int compare(TestEntity first, TestEntity second) {
+				return Long.valueOf(second.time).compareTo(first.time);
+			}
+		}, Schedulers.trampoline()).test();
+		diffs.assertValueCount(1)
+				.assertValueAt(0, new Predicate<ListDiff<TestEntity>>() {
+					@Override
+					public boolean test(ListDiff<TestEntity> diff) throws Exception {
+						return diff.kind() == ListDiff.Kind.RELOAD && diff.list().size() == 5 && diff.list().get(0).time == 10;
+					}
+				});
+
+		// A new item with the latest time is inserted on top
+		TestEntity added = new TestEntity();
+		added.string = "Added";
+		added.time = 20;
+		rxDatabase.putDirect(added);
+		diffs.assertValueCount(2)
+				.assertValueAt(1, new Predicate<ListDiff<TestEntity>>() {
+					@Override
+					public boolean test(ListDiff<TestEntity> diff) throws Exception {
+						return diff.kind() == ListDiff.Kind.INSERT && diff.toPosition() == 0;
+					}
+				});
+
+		// Updating it to sort in the middle moves it
+		added.time = 8;
+		rxDatabase.putDirect(added);
+		diffs.assertValueCount(3)
+				.assertValueAt(2, new Predicate<ListDiff<TestEntity>>() {
+					@Override
+					public boolean test(ListDiff<TestEntity> diff) throws Exception {
+						return diff.kind() == ListDiff.Kind.MOVE && diff.fromPosition() == 0 && diff.toPosition() == 3;
+					}
+				});
+
+		// Updating it to no longer match removes it, after which deleting it changes nothing
+		added.time = 1;
+		rxDatabase.putDirect(added);
+		rxDatabase.deleteDirect(added);
+		diffs.assertValueCount(4)
+				.assertValueAt(3, new Predicate<ListDiff<TestEntity>>() {
+					@Override
+					public boolean test(ListDiff<TestEntity> diff) throws Exception {
+						return diff.kind() == ListDiff.Kind.REMOVE && diff.fromPosition() == 3;
+					}
+				});
+
+		diffs.dispose();
+
+	}
+
 	@After
 	public void tearDown() throws Exception {
+		rxDatabase.close();
 		db.close();
 	}
 
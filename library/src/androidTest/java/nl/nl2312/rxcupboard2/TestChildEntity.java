@@ -0,0 +1,9 @@
+package nl.nl2312.rxcupboard2;
+
+public class TestChildEntity {
+
+	public Long _id;
+	public Long parent;
+	public String string;
+
+}
@@ -0,0 +1,16 @@
+package nl.nl2312.rxcupboard2;
+
+public class TestJoinEntity {
+
+	public Long _id;
+	public String string;
+	// Read-only, only filled in by queries that join it
+	public Children children;
+
+	public static class Children {
+
+		public long count;
+
+	}
+
+}
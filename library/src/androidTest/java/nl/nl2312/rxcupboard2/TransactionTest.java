@@ -0,0 +1,205 @@
+package nl.nl2312.rxcupboard2;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.Completable;
+import io.reactivex.CompletableSource;
+import io.reactivex.Flowable;
+import io.reactivex.SingleSource;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Action;
+import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Function;
+import nl.qbusict.cupboard.Cupboard;
+import nl.qbusict.cupboard.CupboardBuilder;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(AndroidJUnit4.class)
+public class TransactionTest {
+
+	private static final String TEST_DATABASE = "RxCupboardTest.db";
+
+	private SQLiteDatabase db;
+	private RxDatabase rxDatabase;
+
+	@Before
+	public void setUp() throws Exception {
+		Cupboard cupboard = new CupboardBuilder().build();
+		cupboard.register(TestEntity.class);
+		InstrumentationRegistry.getTargetContext().deleteDatabase(TEST_DATABASE);
+		db = new TestDbHelper(InstrumentationRegistry.getTargetContext(), cupboard, TEST_DATABASE).getWritableDatabase();
+		rxDatabase = RxCupboard.with(cupboard, db);
+	}
+
+	@Test
+	public void transaction_commit() {
+
+		final AtomicInteger changeCount = new AtomicInteger();
+		Disposable changes = rxDatabase.changes(TestEntity.class).subscribe(new Consumer<DatabaseChange<TestEntity>>() {
+			@Override
+			public void accept(DatabaseChange<TestEntity> databaseChange) throws Exception {
+				changeCount.getAndIncrement();
+			}
+		});
+
+		// Two puts in one transaction, of which the changes are only published after commit
+		rxDatabase.inTransactionSingle(new Function<RxDatabase, SingleSource<TestEntity>>() {
+			@Override
+			public SingleSource<TestEntity> apply(final RxDatabase rxDatabase) throws Exception {
+				return rxDatabase.put(newEntity("First")).flatMap(new Function<TestEntity, SingleSource<TestEntity>>() {
+					@Override
+					public SingleSource<TestEntity> apply(TestEntity first) throws Exception {
+						assertEquals(0, changeCount.get());
+						return rxDatabase.put(newEntity("Second"));
+					}
+				});
+			}
+		})
+				.test()
+				.assertTerminated()
+				.assertValueCount(1);
+
+		assertEquals(2, changeCount.get());
+		rxDatabase.count(TestEntity.class)
+				.test()
+				.assertValue(2L);
+
+		changes.dispose();
+
+	}
+
+	@Test
+	public void transaction_rollback() {
+
+		final AtomicInteger changeCount = new AtomicInteger();
+		Disposable changes = rxDatabase.changes(TestEntity.class).subscribe(new Consumer<DatabaseChange<TestEntity>>() {
+			@Override
+			public void accept(DatabaseChange<TestEntity> databaseChange) throws Exception {
+				changeCount.getAndIncrement();
+			}
+		});
+
+		// A put followed by a failure rolls back the put and never publishes its change
+		rxDatabase.inTransaction(new Function<RxDatabase, CompletableSource>() {
+			@Override
+			public CompletableSource apply(RxDatabase rxDatabase) throws Exception {
+				return rxDatabase.put(newEntity("Rolled back"))
+						.toCompletable()
+						.andThen(Completable.error(new IllegalStateException("Rollback")));
+			}
+		})
+				.test()
+				.assertTerminated()
+				.assertError(IllegalStateException.class);
+
+		assertEquals(0, changeCount.get());
+		rxDatabase.count(TestEntity.class)
+				.test()
+				.assertValue(0L);
+
+		changes.dispose();
+
+	}
+
+	@Test
+	public void transaction_nested() {
+
+		final AtomicInteger changeCount = new AtomicInteger();
+		Disposable changes = rxDatabase.changes(TestEntity.class).subscribe(new Consumer<DatabaseChange<TestEntity>>() {
+			@Override
+			public void accept(DatabaseChange<TestEntity> databaseChange) throws Exception {
+				changeCount.getAndIncrement();
+			}
+		});
+
+		// A batch put inside an outer transaction publishes only when the outer transaction commits
+		rxDatabase.inTransaction(new Function<RxDatabase, CompletableSource>() {
+			@Override
+			public CompletableSource apply(RxDatabase rxDatabase) throws Exception {
+				return rxDatabase.putAll(Flowable.range(1, 5).map(new Function<Integer, TestEntity>() {
+					@Override
+					public TestEntity apply(Integer integer) throws Exception {
+						return newEntity("Nested");
+					}
+				}), 2)
+						.ignoreElements()
+						.doOnComplete(new Action() {
+							@Override
+							public void run() throws Exception {
+								assertEquals(0, changeCount.get());
+							}
+						});
+			}
+		})
+				.test()
+				.assertComplete();
+
+		assertEquals(5, changeCount.get());
+
+		changes.dispose();
+
+	}
+
+	@Test
+	public void transaction_nestedFailureHandled() {
+
+		final AtomicInteger changeCount = new AtomicInteger();
+		Disposable changes = rxDatabase.changes(TestEntity.class).subscribe(new Consumer<DatabaseChange<TestEntity>>() {
+			@Override
+			public void accept(DatabaseChange<TestEntity> databaseChange) throws Exception {
+				changeCount.getAndIncrement();
+			}
+		});
+
+		// A failed nested transaction rolls back the outer one, even if its error is handled, so that may not complete
+		rxDatabase.inTransaction(new Function<RxDatabase, CompletableSource>() {
+			@Override
+			public CompletableSource apply(final RxDatabase outer) throws Exception {
+				return outer.put(newEntity("Outer"))
+						.toCompletable()
+						.andThen(outer.inTransaction(new Function<RxDatabase, CompletableSource>() {
+							@Override
+							public CompletableSource apply(RxDatabase inner) throws Exception {
+								return Completable.error(new IllegalStateException("Nested"));
+							}
+						}).onErrorComplete());
+			}
+		})
+				.test()
+				.assertTerminated()
+				.assertError(SQLiteException.class);
+
+		assertEquals(0, changeCount.get());
+		rxDatabase.count(TestEntity.class)
+				.test()
+				.assertValue(0L);
+
+		changes.dispose();
+
+	}
+
+	private TestEntity newEntity(String string) {
+		TestEntity testEntity = new TestEntity();
+		testEntity.string = string;
+		testEntity.time = System.currentTimeMillis();
+		return testEntity;
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		rxDatabase.close();
+		db.close();
+	}
+
+}
@@ -0,0 +1,55 @@
+package nl.nl2312.rxcupboard2;
+
+/**
+ * Snapshot of the entity cache counters, to help size the cache.
+ */
+public final class CacheStats {
+
+	private final long hits;
+	private final long misses;
+	private final long evictions;
+	private final int size;
+	private final int maxSize;
+
+	CacheStats(long hits, long misses, long evictions, int size, int maxSize) {
+		this.hits = hits;
+		this.misses = misses;
+		this.evictions = evictions;
+		this.size = size;
+		this.maxSize = maxSize;
+	}
+
+	public long hits() {
+		return hits;
+	}
+
+	public long misses() {
+		return misses;
+	}
+
+	/**
+	 * Number of entities removed to make room for others, excluding those removed because they were deleted.
+	 */
+	public long evictions() {
+		return evictions;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int maxSize() {
+		return maxSize;
+	}
+
+	public double hitRate() {
+		long requests = hits + misses;
+		return requests == 0 ? 0 : (double) hits / requests;
+	}
+
+	@Override
+	public String toString() {
+		return "CacheStats{hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + ", size=" + size + "/" + maxSize + "}";
+	}
+
+}
@@ -0,0 +1,80 @@
+package nl.nl2312.rxcupboard2;
+
+import org.reactivestreams.Publisher;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.BackpressureOverflowStrategy;
+import io.reactivex.Flowable;
+import io.reactivex.FlowableTransformer;
+import io.reactivex.functions.Action;
+
+/**
+ * Bounds the changes that are held back for a subscriber that cannot keep up, such as one that observes on a busy main
+ * thread, instead of failing its change stream with a MissingBackpressureException. Apply it with compose() or pass
+ * it to RxDatabase.changes(). The number of changes dropped so far is available from overflowCount(), so use a new
+ * instance for every subscription of which overflows should be counted separately.
+ */
+public final class ChangeBackpressure<C extends DatabaseChange> implements FlowableTransformer<C, C> {
+
+	private enum Strategy {
+		BUFFER, DROP_OLDEST, LATEST_PER_ENTITY
+	}
+
+	/**
+	 * Buffers up to capacity changes, dropping any newer changes while the buffer is full.
+	 */
+	public static <C extends DatabaseChange> ChangeBackpressure<C> buffer(int capacity) {
+		return new ChangeBackpressure<>(Strategy.BUFFER, capacity);
+	}
+
+	/**
+	 * Buffers up to capacity changes, dropping the oldest buffered change to make room for a newer one.
+	 */
+	public static <C extends DatabaseChange> ChangeBackpressure<C> dropOldest(int capacity) {
+		return new ChangeBackpressure<>(Strategy.DROP_OLDEST, capacity);
+	}
+
+	/**
+	 * Buffers only the latest change per entity (class and id), dropping the oldest buffered change when changes to
+	 * more than capacity different entities are pending. Bulk deletes and changes of unknown id are never merged.
+	 */
+	public static <C extends DatabaseChange> ChangeBackpressure<C> latestPerEntity(int capacity) {
+		return new ChangeBackpressure<>(Strategy.LATEST_PER_ENTITY, capacity);
+	}
+
+	private final Strategy strategy;
+	private final int capacity;
+	private final AtomicLong overflowCount = new AtomicLong();
+
+	private ChangeBackpressure(Strategy strategy, int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity should be at least 1");
+		}
+		this.strategy = strategy;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Number of changes that were dropped (not merged) because the subscriber could not keep up.
+	 */
+	public long overflowCount() {
+		return overflowCount.get();
+	}
+
+	@Override
+	public Publisher<C> apply(Flowable<C> upstream) {
+		if (strategy == Strategy.LATEST_PER_ENTITY) {
+			return upstream.lift(new LatestPerEntityOperator<C>(capacity, overflowCount));
+		}
+		Action onOverflow = new Action() {
+			@Override
+			public void run() throws Exception {
+				overflowCount.incrementAndGet();
+			}
+		};
+		return upstream.onBackpressureBuffer(capacity, onOverflow,
+				strategy == Strategy.BUFFER ? BackpressureOverflowStrategy.DROP_LATEST : BackpressureOverflowStrategy.DROP_OLDEST);
+	}
+
+}
@@ -0,0 +1,49 @@
+package nl.nl2312.rxcupboard2;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.reactivex.functions.Function;
+
+final class ChangeCoalescer<T> implements Function<List<DatabaseChange<T>>, List<DatabaseChange<T>>> {
+
+	@Override
+	public List<DatabaseChange<T>> apply(List<DatabaseChange<T>> changes) throws Exception {
+		// Keep one change per entity, in order of first appearance, that represents the net effect of the batch
+		Map<Object, DatabaseChange<T>> net = new LinkedHashMap<>();
+		for (DatabaseChange<T> change : changes) {
+			Long id = change.id();
+			if (id == null) {
+				// Unidentifiable changes are never collapsed
+				net.put(change, change);
+				continue;
+			}
+			EntityKey key = new EntityKey(change.entityClass(), id);
+			DatabaseChange<T> merged = merge(net.get(key), change, id);
+			if (merged == null) {
+				net.remove(key);
+			} else {
+				net.put(key, merged);
+			}
+		}
+		return new ArrayList<>(net.values());
+	}
+
+	private DatabaseChange<T> merge(DatabaseChange<T> previous, DatabaseChange<T> next, long id) {
+		if (previous instanceof DatabaseChange.DatabaseInsert) {
+			if (next instanceof DatabaseChange.DatabaseDelete) {
+				// Inserted and deleted again: nothing happened at all
+				return null;
+			}
+			// Inserted and then updated: still an insert, but of the latest state
+			return DatabaseChange.insert(next.entity(), id);
+		} else if (previous instanceof DatabaseChange.DatabaseDelete && next instanceof DatabaseChange.DatabaseInsert) {
+			// Deleted and inserted again with the same id: the row was effectively updated
+			return DatabaseChange.update(next.entity(), id);
+		}
+		return next;
+	}
+
+}
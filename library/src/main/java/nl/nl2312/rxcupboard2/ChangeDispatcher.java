@@ -0,0 +1,143 @@
+package nl.nl2312.rxcupboard2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.processors.PublishProcessor;
+
+final class ChangeDispatcher {
+
+	private final ConcurrentHashMap<Class<?>, Channels> channels = new ConcurrentHashMap<>();
+	// Per concrete entity class the channels that receive its changes; replaced whenever a new channel is registered
+	private volatile Map<Class<?>, Channels[]> targets = new ConcurrentHashMap<>();
+	// Changes from concurrent writers, emitted one at a time by whichever writer finds no emission in progress
+	private final ConcurrentLinkedQueue<DatabaseChange> queue = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger wip = new AtomicInteger();
+	// Notified in the same serialized order as the subscribers; that is the publish order, which for concurrent writers
+	// is not necessarily their commit order
+	private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+	Channels channels(Class<?> entityClass) {
+		Channels existing = channels.get(entityClass);
+		if (existing != null) {
+			return existing;
+		}
+		Channels created = new Channels();
+		existing = channels.putIfAbsent(entityClass, created);
+		if (existing != null) {
+			return existing;
+		}
+		// New subscribable class: entity classes need to resolve their targets again
+		targets = new ConcurrentHashMap<>();
+		return created;
+	}
+
+	void addListener(ChangeListener listener) {
+		listeners.add(listener);
+	}
+
+	boolean hasListeners() {
+		return !listeners.isEmpty();
+	}
+
+	/**
+	 * Whether any subscriber would receive changes of the given entity class, without allocating once resolved.
+	 */
+	boolean hasSubscribers(Class<?> entityClass) {
+		for (Channels target : targetsOf(entityClass)) {
+			if (target.hasSubscribers()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	void dispatch(DatabaseChange change) {
+		queue.offer(change);
+		if (wip.getAndIncrement() != 0) {
+			// Another thread is emitting and will deliver this change as well, so subscribers never see concurrent onNext calls
+			return;
+		}
+		int missed = 1;
+		RuntimeException error = null;
+		do {
+			DatabaseChange next;
+			while ((next = queue.poll()) != null) {
+				try {
+					deliver(next);
+				} catch (RuntimeException e) {
+					// Keep delivering the changes of the other writers, who rely on this drain, and report the failure after
+					if (error == null) {
+						error = e;
+					}
+				}
+			}
+			missed = wip.addAndGet(-missed);
+		} while (missed != 0);
+		if (error != null) {
+			throw error;
+		}
+	}
+
+	private void deliver(DatabaseChange change) {
+		for (ChangeListener listener : listeners) {
+			listener.onChange(change);
+		}
+		for (Channels target : targetsOf(change.entityClass())) {
+			target.dispatch(change);
+		}
+	}
+
+	private Channels[] targetsOf(Class<?> entityClass) {
+		Map<Class<?>, Channels[]> resolved = targets;
+		Channels[] found = resolved.get(entityClass);
+		if (found == null) {
+			// Resolve the class hierarchy once, instead of testing every subscriber on every change
+			List<Channels> matching = new ArrayList<>();
+			for (Map.Entry<Class<?>, Channels> entry : channels.entrySet()) {
+				if (entry.getKey().isAssignableFrom(entityClass)) {
+					matching.add(entry.getValue());
+				}
+			}
+			found = matching.toArray(new Channels[matching.size()]);
+			resolved.put(entityClass, found);
+		}
+		return found;
+	}
+
+	static final class Channels {
+
+		final PublishProcessor<DatabaseChange> changes = PublishProcessor.create();
+		final PublishProcessor<DatabaseChange> inserts = PublishProcessor.create();
+		final PublishProcessor<DatabaseChange> updates = PublishProcessor.create();
+		final PublishProcessor<DatabaseChange> deletes = PublishProcessor.create();
+
+		boolean hasSubscribers() {
+			return changes.hasSubscribers() || inserts.hasSubscribers() || updates.hasSubscribers() || deletes.hasSubscribers();
+		}
+
+		void dispatch(DatabaseChange change) {
+			if (changes.hasSubscribers()) {
+				changes.onNext(change);
+			}
+			PublishProcessor<DatabaseChange> kind;
+			if (change instanceof DatabaseChange.DatabaseInsert) {
+				kind = inserts;
+			} else if (change instanceof DatabaseChange.DatabaseUpdate) {
+				kind = updates;
+			} else {
+				kind = deletes;
+			}
+			if (kind.hasSubscribers()) {
+				kind.onNext(change);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,10 @@
+package nl.nl2312.rxcupboard2;
+
+/**
+ * Internal observer of committed changes, notified before the changes are published to subscribers.
+ */
+interface ChangeListener {
+
+	void onChange(DatabaseChange<?> change);
+
+}
@@ -1,5 +1,7 @@
 package nl.nl2312.rxcupboard2;
 
+import nl.qbusict.cupboard.convert.EntityConverter;
+
 public abstract class DatabaseChange<T> {
 
 	public static <T> DatabaseInsert<T> insert(final T entity) {
@@ -20,20 +22,114 @@ public abstract class DatabaseChange<T> {
 		return delete;
 	}
 
-	T entity;
+	static <T> DatabaseInsert<T> insert(final T entity, final long id) {
+		DatabaseInsert<T> insert = insert(entity);
+		insert.id = id;
+		return insert;
+	}
+
+	static <T> DatabaseUpdate<T> update(final T entity, final long id) {
+		DatabaseUpdate<T> update = update(entity);
+		update.id = id;
+		return update;
+	}
+
+	static <T> DatabaseDelete<T> delete(final T entity, final EntityConverter<T> converter) {
+		DatabaseDelete<T> delete = delete(entity);
+		delete.converter = converter;
+		return delete;
+	}
+
+	static <T> DatabaseDelete<T> delete(final Class<T> entityClass, final long id, final EntityConverter<T> converter) {
+		// Lightweight delete: the entity is only materialised (with just its id) when someone asks for it
+		DatabaseDelete<T> delete = new DatabaseDelete<>();
+		delete.entityClass = entityClass;
+		delete.id = id;
+		delete.converter = converter;
+		return delete;
+	}
+
+	static <T> DatabaseDelete<T> deleteAll(final Class<T> entityClass, final long[] ids) {
+		// Bulk delete: a single change that reports all deleted ids at once
+		DatabaseDelete<T> delete = new DatabaseDelete<>();
+		delete.entityClass = entityClass;
+		delete.ids = ids;
+		return delete;
+	}
+
+	// Volatile, as a delete by id creates its entity on first access while being shared between subscriber threads
+	volatile T entity;
+	Class<T> entityClass;
+	Long id;
+	EntityConverter<T> converter;
 
 	public Class<?> entityClass() {
-		return entity.getClass();
+		return entityClass != null ? entityClass : entity.getClass();
 	}
 
 	public T entity() {
-		return entity;
+		T known = entity;
+		if (known == null && id != null) {
+			synchronized (this) {
+				known = entity;
+				if (known == null) {
+					known = stub();
+					entity = known;
+				}
+			}
+		}
+		return known;
+	}
+
+	/**
+	 * Returns the id of the changed entity, without materialising it, or null if it is not known.
+	 */
+	public Long id() {
+		if (id == null && entity != null && converter != null) {
+			id = converter.getId(entity);
+		}
+		return id;
+	}
+
+	private T stub() {
+		try {
+			// An otherwise empty entity that only carries the id of the changed row
+			T stub = entityClass.newInstance();
+			converter.setId(id, stub);
+			return stub;
+		} catch (InstantiationException | IllegalAccessException e) {
+			throw new RuntimeException("Cannot create " + entityClass + " for deleted id " + id, e);
+		}
 	}
 
 	public static final class DatabaseInsert<T> extends DatabaseChange<T> {}
 
 	public static final class DatabaseUpdate<T> extends DatabaseChange<T> {}
 
-	public static final class DatabaseDelete<T> extends DatabaseChange<T> {}
+	public static final class DatabaseDelete<T> extends DatabaseChange<T> {
+
+		long[] ids;
+
+		/**
+		 * Whether this change reports the deletion of multiple rows at once. Bulk deletes have no single id() or
+		 * entity(), but only the deleted ids().
+		 */
+		public boolean isBulk() {
+			return ids != null;
+		}
+
+		/**
+		 * Returns the ids of all rows that were deleted. The array is shared between subscribers and should not be
+		 * modified.
+		 */
+		public long[] ids() {
+			if (ids != null) {
+				return ids;
+			}
+			Long id = id();
+			return id == null ? new long[0] : new long[]{id};
+		}
+
+	}
 
 }
@@ -0,0 +1,182 @@
+package nl.nl2312.rxcupboard2;
+
+import android.annotation.TargetApi;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+
+import org.reactivestreams.Publisher;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.reactivex.Flowable;
+import io.reactivex.functions.Action;
+import nl.qbusict.cupboard.Cupboard;
+import nl.qbusict.cupboard.DatabaseCompartment;
+
+/**
+ * State shared by all RxDatabase instances for the same database and Cupboard: the change streams, transaction
+ * scopes, compiled statements, per-class write metadata and caches. An engine lives as long as some RxDatabase that
+ * uses it, or some subscriber to its changes.
+ */
+final class DatabaseEngine {
+
+	private static final int STATEMENT_CACHE_SIZE = 32;
+	// Weak keys and values, so the registry never keeps a database or its engine alive
+	private static final Map<SQLiteDatabase, Map<Cupboard, WeakReference<DatabaseEngine>>> ENGINES = new WeakHashMap<>();
+	// Engines with change subscribers, held strongly so a later RxDatabase on the same database still publishes to them
+	private static final Set<DatabaseEngine> OBSERVED = new HashSet<>();
+
+	static synchronized DatabaseEngine of(Cupboard cupboard, SQLiteDatabase db) {
+		Map<Cupboard, WeakReference<DatabaseEngine>> byCupboard = ENGINES.get(db);
+		if (byCupboard == null) {
+			byCupboard = new WeakHashMap<>();
+			ENGINES.put(db, byCupboard);
+		}
+		WeakReference<DatabaseEngine> reference = byCupboard.get(cupboard);
+		DatabaseEngine engine = reference == null ? null : reference.get();
+		if (engine == null) {
+			engine = new DatabaseEngine(cupboard, db);
+			byCupboard.put(cupboard, new WeakReference<>(engine));
+		}
+		return engine;
+	}
+
+	final Cupboard cupboard;
+	final DatabaseCompartment dc;
+	final SQLiteDatabase db;
+	final ChangeDispatcher dispatcher = new ChangeDispatcher();
+	final ThreadLocal<RxDatabase.PendingChanges> pendingChanges = new ThreadLocal<>();
+	final StatementCache statements;
+	private final ConcurrentHashMap<Class<?>, EntityMeta<?>> metas = new ConcurrentHashMap<>();
+	// One cache per option set, rather than per RxDatabase, so listeners do not pile up as instances are created
+	private final Map<Integer, EntityCache> entityCaches = new HashMap<>();
+	private final Map<List<Object>, QueryCache> queryCaches = new HashMap<>();
+	private boolean writeAheadLogging;
+	private int observers;
+
+	private DatabaseEngine(Cupboard cupboard, SQLiteDatabase db) {
+		this.cupboard = cupboard;
+		this.dc = cupboard.withDatabase(db);
+		this.db = db;
+		this.statements = new StatementCache(db, STATEMENT_CACHE_SIZE);
+	}
+
+	@SuppressWarnings("unchecked") // Metadata is stored by its own entity class, so the type always matches
+	<T> EntityMeta<T> meta(Class<T> entityClass) {
+		EntityMeta<T> meta = (EntityMeta<T>) metas.get(entityClass);
+		if (meta == null) {
+			meta = new EntityMeta<>(cupboard, entityClass);
+			EntityMeta<T> existing = (EntityMeta<T>) metas.putIfAbsent(entityClass, meta);
+			if (existing != null) {
+				meta = existing;
+			}
+		}
+		return meta;
+	}
+
+	@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+	synchronized void enableWriteAheadLogging() {
+		if (writeAheadLogging) {
+			return;
+		}
+		try {
+			// Returns false for in-memory databases, which then simply keep using their single connection
+			db.enableWriteAheadLogging();
+			writeAheadLogging = true;
+		} catch (IllegalStateException e) {
+			// Some transaction is in progress; reads keep working without WAL, and the next RxDatabase tries again
+		}
+	}
+
+	synchronized EntityCache entityCache(int maxSize) {
+		EntityCache cache = entityCaches.get(maxSize);
+		if (cache == null) {
+			cache = new EntityCache(maxSize);
+			entityCaches.put(maxSize, cache);
+			dispatcher.addListener(cache);
+		}
+		return cache;
+	}
+
+	synchronized QueryCache queryCache(long maxWeight, QueryWeigher weigher) {
+		List<Object> key = Arrays.<Object>asList(maxWeight, weigher);
+		QueryCache cache = queryCaches.get(key);
+		if (cache == null) {
+			cache = new QueryCache(maxWeight, weigher);
+			queryCaches.put(key, cache);
+			dispatcher.addListener(cache);
+		}
+		return cache;
+	}
+
+	/**
+	 * Keeps this engine reachable for as long as the returned change stream is subscribed to.
+	 */
+	<T> Flowable<T> observed(final Flowable<T> changes) {
+		return Flowable.defer(new Callable<Publisher<T>>() {
+			@Override
+			public Publisher<T> call() throws Exception {
+				retain();
+				final AtomicBoolean released = new AtomicBoolean();
+				return changes.doOnCancel(new Action() {
+					@Override
+					public void run() throws Exception {
+						if (released.compareAndSet(false, true)) {
+							release();
+						}
+					}
+				});
+			}
+		});
+	}
+
+	private void retain() {
+		synchronized (DatabaseEngine.class) {
+			if (observers++ == 0) {
+				OBSERVED.add(this);
+			}
+		}
+	}
+
+	private void release() {
+		synchronized (DatabaseEngine.class) {
+			if (--observers == 0) {
+				OBSERVED.remove(this);
+			}
+		}
+	}
+
+	synchronized void close() {
+		statements.clear();
+		for (EntityMeta<?> meta : metas.values()) {
+			meta.close();
+		}
+		// The caches stay registered, as other instances still use them
+		for (EntityCache cache : entityCaches.values()) {
+			cache.clear();
+		}
+		for (QueryCache cache : queryCaches.values()) {
+			cache.clear();
+		}
+	}
+
+	boolean publishing(Class<?> entityClass) {
+		// Listeners (the caches) are kept up to date by the same changes that are published to subscribers
+		return dispatcher.hasListeners() || dispatcher.hasSubscribers(entityClass);
+	}
+
+	void dispatch(DatabaseChange change) {
+		dispatcher.dispatch(change);
+	}
+
+}
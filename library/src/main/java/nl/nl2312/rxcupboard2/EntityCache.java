@@ -0,0 +1,96 @@
+package nl.nl2312.rxcupboard2;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded identity map of entities by class and id, as read from the database. Writers commit before they publish
+ * their change, so two writes of the same id may be published in another order than they were committed; every change
+ * therefore evicts the entity instead of caching the written instance, and the next get reads the committed row. A
+ * version stamp prevents a get that raced with a change from caching what it read before the change.
+ */
+final class EntityCache implements ChangeListener {
+
+	private final int maxSize;
+	private final Map<EntityKey, Object> entities;
+	private long version;
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	EntityCache(final int maxSize) {
+		this.maxSize = maxSize;
+		// Access ordered, so the least recently used entity is evicted first
+		this.entities = new LinkedHashMap<EntityKey, Object>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<EntityKey, Object> eldest) {
+				if (size() > EntityCache.this.maxSize) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	synchronized <T> T get(Class<T> entityClass, long id) {
+		T entity = entityClass.cast(entities.get(new EntityKey(entityClass, id)));
+		if (entity == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return entity;
+	}
+
+	synchronized long version() {
+		return version;
+	}
+
+	/**
+	 * Caches an entity that was read from the database, unless some change was applied since the read started.
+	 */
+	synchronized void putIfUnchanged(Class<?> entityClass, long id, Object entity, long readVersion) {
+		if (version == readVersion) {
+			entities.put(new EntityKey(entityClass, id), entity);
+		}
+	}
+
+	@Override
+	public synchronized void onChange(DatabaseChange<?> change) {
+		version++;
+		Class<?> entityClass = change.entityClass();
+		if (change instanceof DatabaseChange.DatabaseDelete && ((DatabaseChange.DatabaseDelete<?>) change).isBulk()) {
+			for (long id : ((DatabaseChange.DatabaseDelete<?>) change).ids()) {
+				entities.remove(new EntityKey(entityClass, id));
+			}
+			return;
+		}
+		Long id = change.id();
+		if (id == null) {
+			invalidate(entityClass);
+		} else {
+			entities.remove(new EntityKey(entityClass, id));
+		}
+	}
+
+	private void invalidate(Class<?> entityClass) {
+		Iterator<EntityKey> keys = entities.keySet().iterator();
+		while (keys.hasNext()) {
+			if (keys.next().entityClass.equals(entityClass)) {
+				keys.remove();
+			}
+		}
+	}
+
+	synchronized void clear() {
+		version++;
+		entities.clear();
+	}
+
+	synchronized CacheStats stats() {
+		return new CacheStats(hits, misses, evictions, entities.size(), maxSize);
+	}
+
+}
@@ -0,0 +1,30 @@
+package nl.nl2312.rxcupboard2;
+
+final class EntityKey {
+
+	final Class<?> entityClass;
+	final long id;
+
+	EntityKey(Class<?> entityClass, long id) {
+		this.entityClass = entityClass;
+		this.id = id;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof EntityKey)) {
+			return false;
+		}
+		EntityKey other = (EntityKey) o;
+		return id == other.id && entityClass.equals(other.entityClass);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * entityClass.hashCode() + (int) (id ^ (id >>> 32));
+	}
+
+}
@@ -0,0 +1,43 @@
+package nl.nl2312.rxcupboard2;
+
+import nl.qbusict.cupboard.Cupboard;
+import nl.qbusict.cupboard.convert.EntityConverter;
+
+/**
+ * Everything needed to write entities of one class, looked up once instead of on every write.
+ */
+final class EntityMeta<T> {
+
+	final Class<T> entityClass;
+	final EntityConverter<T> converter;
+	final String quotedTable;
+	private volatile PreparedWriter<T> writer;
+
+	EntityMeta(Cupboard cupboard, Class<T> entityClass) {
+		this.entityClass = entityClass;
+		this.converter = cupboard.getEntityConverter(entityClass);
+		this.quotedTable = "\"" + cupboard.getTable(entityClass) + "\"";
+	}
+
+	PreparedWriter<T> writer() {
+		PreparedWriter<T> existing = writer;
+		if (existing == null) {
+			synchronized (this) {
+				existing = writer;
+				if (existing == null) {
+					existing = new PreparedWriter<>(converter, quotedTable);
+					writer = existing;
+				}
+			}
+		}
+		return existing;
+	}
+
+	void close() {
+		PreparedWriter<T> existing = writer;
+		if (existing != null) {
+			existing.close();
+		}
+	}
+
+}
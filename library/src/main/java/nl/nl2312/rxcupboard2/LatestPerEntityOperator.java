@@ -0,0 +1,170 @@
+package nl.nl2312.rxcupboard2;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.FlowableOperator;
+
+/**
+ * Holds pending changes for a slow subscriber by entity, so a newer change to the same entity replaces the pending one.
+ */
+final class LatestPerEntityOperator<C extends DatabaseChange> implements FlowableOperator<C, C> {
+
+	private final int capacity;
+	private final AtomicLong overflowCount;
+
+	LatestPerEntityOperator(int capacity, AtomicLong overflowCount) {
+		this.capacity = capacity;
+		this.overflowCount = overflowCount;
+	}
+
+	@Override
+	public Subscriber<? super C> apply(Subscriber<? super C> downstream) throws Exception {
+		return new LatestPerEntitySubscriber<>(downstream, capacity, overflowCount);
+	}
+
+	private static final class LatestPerEntitySubscriber<C extends DatabaseChange> implements Subscriber<C>, Subscription {
+
+		private final Subscriber<? super C> downstream;
+		private final int capacity;
+		private final AtomicLong overflowCount;
+		// Insertion ordered; a replaced change moves to the end as it is the most recent
+		private final LinkedHashMap<Object, C> pending = new LinkedHashMap<>();
+		private final AtomicLong requested = new AtomicLong();
+		private final AtomicInteger wip = new AtomicInteger();
+		private Subscription upstream;
+		private volatile boolean done;
+		private volatile boolean cancelled;
+		private Throwable error;
+
+		LatestPerEntitySubscriber(Subscriber<? super C> downstream, int capacity, AtomicLong overflowCount) {
+			this.downstream = downstream;
+			this.capacity = capacity;
+			this.overflowCount = overflowCount;
+		}
+
+		@Override
+		public void onSubscribe(Subscription subscription) {
+			upstream = subscription;
+			downstream.onSubscribe(this);
+			subscription.request(Long.MAX_VALUE);
+		}
+
+		@Override
+		public void onNext(C change) {
+			Object key = key(change);
+			synchronized (pending) {
+				if (pending.remove(key) == null && pending.size() == capacity) {
+					Iterator<C> oldest = pending.values().iterator();
+					oldest.next();
+					oldest.remove();
+					overflowCount.incrementAndGet();
+				}
+				pending.put(key, change);
+			}
+			drain();
+		}
+
+		private static Object key(DatabaseChange change) {
+			if (change instanceof DatabaseChange.DatabaseDelete && ((DatabaseChange.DatabaseDelete) change).isBulk()) {
+				return new Object();
+			}
+			Long id = change.id();
+			return id == null ? new Object() : new EntityKey(change.entityClass(), id);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			error = throwable;
+			done = true;
+			drain();
+		}
+
+		@Override
+		public void onComplete() {
+			done = true;
+			drain();
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				return;
+			}
+			long current;
+			long next;
+			do {
+				current = requested.get();
+				next = current + n < 0 ? Long.MAX_VALUE : current + n;
+			} while (!requested.compareAndSet(current, next));
+			drain();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			upstream.cancel();
+		}
+
+		private C poll() {
+			synchronized (pending) {
+				Iterator<C> oldest = pending.values().iterator();
+				if (!oldest.hasNext()) {
+					return null;
+				}
+				C change = oldest.next();
+				oldest.remove();
+				return change;
+			}
+		}
+
+		private void drain() {
+			if (wip.getAndIncrement() != 0) {
+				return;
+			}
+			int missed = 1;
+			do {
+				long requested = this.requested.get();
+				long emitted = 0;
+				while (!cancelled) {
+					boolean terminated = done;
+					C change = emitted == requested ? null : poll();
+					if (terminated && change == null && (emitted != requested || isEmpty())) {
+						// Terminate only after all pending changes were delivered
+						if (error != null) {
+							downstream.onError(error);
+						} else {
+							downstream.onComplete();
+						}
+						return;
+					}
+					if (change == null) {
+						break;
+					}
+					downstream.onNext(change);
+					emitted++;
+				}
+				if (cancelled) {
+					return;
+				}
+				if (emitted != 0 && requested != Long.MAX_VALUE) {
+					this.requested.addAndGet(-emitted);
+				}
+				missed = wip.addAndGet(-missed);
+			} while (missed != 0);
+		}
+
+		private boolean isEmpty() {
+			synchronized (pending) {
+				return pending.isEmpty();
+			}
+		}
+
+	}
+
+}
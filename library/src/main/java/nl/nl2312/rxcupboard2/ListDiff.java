@@ -0,0 +1,74 @@
+package nl.nl2312.rxcupboard2;
+
+import java.util.List;
+
+public final class ListDiff<T> {
+
+	public enum Kind {
+		// A MOVE is a CHANGE of which the entity also changed position
+		RELOAD, INSERT, REMOVE, CHANGE, MOVE
+	}
+
+	static <T> ListDiff<T> reload(List<T> list) {
+		return new ListDiff<>(Kind.RELOAD, -1, -1, null, list);
+	}
+
+	static <T> ListDiff<T> insert(int position, T entity) {
+		return new ListDiff<>(Kind.INSERT, -1, position, entity, null);
+	}
+
+	static <T> ListDiff<T> remove(int position, T entity) {
+		return new ListDiff<>(Kind.REMOVE, position, -1, entity, null);
+	}
+
+	static <T> ListDiff<T> change(int fromPosition, int toPosition, T entity) {
+		return new ListDiff<>(fromPosition == toPosition ? Kind.CHANGE : Kind.MOVE, fromPosition, toPosition, entity, null);
+	}
+
+	private final Kind kind;
+	private final int fromPosition;
+	private final int toPosition;
+	private final T entity;
+	private final List<T> list;
+
+	private ListDiff(Kind kind, int fromPosition, int toPosition, T entity, List<T> list) {
+		this.kind = kind;
+		this.fromPosition = fromPosition;
+		this.toPosition = toPosition;
+		this.entity = entity;
+		this.list = list;
+	}
+
+	public Kind kind() {
+		return kind;
+	}
+
+	/**
+	 * Position the entity was removed from or moved away from, or -1 for inserts and reloads.
+	 */
+	public int fromPosition() {
+		return fromPosition;
+	}
+
+	/**
+	 * Position the entity was inserted at or moved to, or -1 for removals and reloads.
+	 */
+	public int toPosition() {
+		return toPosition;
+	}
+
+	/**
+	 * The inserted, changed or moved entity, or the removed entity; null for reloads.
+	 */
+	public T entity() {
+		return entity;
+	}
+
+	/**
+	 * The complete list after a reload; null for all other kinds of diffs.
+	 */
+	public List<T> list() {
+		return list;
+	}
+
+}
@@ -0,0 +1,150 @@
+package nl.nl2312.rxcupboard2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import io.reactivex.functions.Predicate;
+import nl.qbusict.cupboard.convert.EntityConverter;
+
+final class LiveList<T> {
+
+	private final EntityConverter<T> converter;
+	private final Predicate<? super T> filter;
+	private final Comparator<? super T> order;
+	private final Callable<List<T>> loader;
+	private final List<T> items = new ArrayList<>();
+	// The listed instance per id, so changes find their item without converting every item to its id
+	private final Map<Long, T> byId = new HashMap<>();
+
+	LiveList(EntityConverter<T> converter, Predicate<? super T> filter, Comparator<? super T> order, Callable<List<T>> loader) {
+		this.converter = converter;
+		this.filter = filter;
+		this.order = order;
+		this.loader = loader;
+	}
+
+	List<ListDiff<T>> reload() throws Exception {
+		items.clear();
+		byId.clear();
+		for (T entity : loader.call()) {
+			if (filter.test(entity)) {
+				items.add(entity);
+				byId.put(converter.getId(entity), entity);
+			}
+		}
+		if (order != null) {
+			Collections.sort(items, order);
+		}
+		return Collections.singletonList(ListDiff.reload(Collections.unmodifiableList(new ArrayList<>(items))));
+	}
+
+	List<ListDiff<T>> apply(DatabaseChange<T> change) throws Exception {
+		if (change instanceof DatabaseChange.DatabaseDelete && ((DatabaseChange.DatabaseDelete<T>) change).isBulk()) {
+			return removeAll(((DatabaseChange.DatabaseDelete<T>) change).ids());
+		}
+		Long id = change.id();
+		if (id == null && change.entity() != null) {
+			id = converter.getId(change.entity());
+		}
+		if (id == null) {
+			// Without knowing which row changed we cannot update our list locally
+			return reload();
+		}
+		T listed = byId.get(id);
+		int oldPosition = listed == null ? -1 : indexOf(listed);
+		// Deletes are handled by id only, so their entity is never materialised
+		if (change instanceof DatabaseChange.DatabaseDelete || !filter.test(change.entity())) {
+			if (oldPosition < 0) {
+				// Was never (and is still not) part of our result
+				return Collections.emptyList();
+			}
+			byId.remove(id);
+			return Collections.singletonList(ListDiff.remove(oldPosition, items.remove(oldPosition)));
+		}
+		T entity = change.entity();
+		byId.put(id, entity);
+		if (oldPosition >= 0) {
+			items.remove(oldPosition);
+			int newPosition = insertionPoint(entity, oldPosition);
+			items.add(newPosition, entity);
+			return Collections.singletonList(ListDiff.change(oldPosition, newPosition, entity));
+		}
+		int newPosition = insertionPoint(entity, items.size());
+		items.add(newPosition, entity);
+		return Collections.singletonList(ListDiff.insert(newPosition, entity));
+	}
+
+	private List<ListDiff<T>> removeAll(long[] ids) {
+		Map<T, Boolean> deleted = new IdentityHashMap<>(ids.length);
+		for (long id : ids) {
+			T listed = byId.remove(id);
+			if (listed != null) {
+				deleted.put(listed, Boolean.TRUE);
+			}
+		}
+		List<ListDiff<T>> removals = new ArrayList<>(deleted.size());
+		if (deleted.isEmpty()) {
+			return removals;
+		}
+		// Remove from the back, so the position of every removal is still valid after the ones before it
+		for (int i = items.size() - 1; i >= 0; i--) {
+			if (deleted.containsKey(items.get(i))) {
+				removals.add(ListDiff.remove(i, items.remove(i)));
+			}
+		}
+		return removals;
+	}
+
+	private int indexOf(T listed) {
+		if (order != null) {
+			// Binary search for the first item that does not sort before it, then look among the items that sort equal
+			int low = 0;
+			int high = items.size();
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (order.compare(items.get(mid), listed) < 0) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			for (int i = low; i < items.size() && order.compare(items.get(i), listed) == 0; i++) {
+				if (items.get(i) == listed) {
+					return i;
+				}
+			}
+		}
+		// Unordered, or the instance was modified in place and no longer sorts where it is listed
+		for (int i = 0; i < items.size(); i++) {
+			if (items.get(i) == listed) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private int insertionPoint(T entity, int unorderedPosition) {
+		if (order == null) {
+			return unorderedPosition;
+		}
+		// Binary search for the position after all items that sort equal or before the entity
+		int low = 0;
+		int high = items.size();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (order.compare(items.get(mid), entity) <= 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+}
@@ -10,6 +10,8 @@ public abstract class OnDatabaseChange<T> implements Consumer<DatabaseChange<T>>
 
     public void onDelete(T entity) {}
 
+    public void onBulkDelete(long[] ids) {}
+
     @Override
     public void accept(DatabaseChange<T> databaseChange) throws Exception {
         if (databaseChange instanceof DatabaseChange.DatabaseUpdate) {
@@ -17,7 +19,12 @@ public abstract class OnDatabaseChange<T> implements Consumer<DatabaseChange<T>>
         } else if (databaseChange instanceof DatabaseChange.DatabaseInsert) {
             onInsert(databaseChange.entity());
         } else if (databaseChange instanceof DatabaseChange.DatabaseDelete) {
-            onDelete(databaseChange.entity());
+            DatabaseChange.DatabaseDelete<T> delete = (DatabaseChange.DatabaseDelete<T>) databaseChange;
+            if (delete.isBulk()) {
+                onBulkDelete(delete.ids());
+            } else {
+                onDelete(delete.entity());
+            }
         }
     }
 
@@ -0,0 +1,39 @@
+package nl.nl2312.rxcupboard2;
+
+import java.util.List;
+
+import io.reactivex.functions.Consumer;
+
+public abstract class OnDatabaseChangeBatch<T> implements Consumer<List<DatabaseChange<T>>> {
+
+	public void onBatch(List<DatabaseChange<T>> changes) {
+		for (DatabaseChange<T> databaseChange : changes) {
+			if (databaseChange instanceof DatabaseChange.DatabaseUpdate) {
+				onUpdate(databaseChange.entity());
+			} else if (databaseChange instanceof DatabaseChange.DatabaseInsert) {
+				onInsert(databaseChange.entity());
+			} else if (databaseChange instanceof DatabaseChange.DatabaseDelete) {
+				DatabaseChange.DatabaseDelete<T> delete = (DatabaseChange.DatabaseDelete<T>) databaseChange;
+				if (delete.isBulk()) {
+					onBulkDelete(delete.ids());
+				} else {
+					onDelete(delete.entity());
+				}
+			}
+		}
+	}
+
+	public void onUpdate(T entity) {}
+
+	public void onInsert(T entity) {}
+
+	public void onDelete(T entity) {}
+
+	public void onBulkDelete(long[] ids) {}
+
+	@Override
+	public void accept(List<DatabaseChange<T>> changes) throws Exception {
+		onBatch(changes);
+	}
+
+}
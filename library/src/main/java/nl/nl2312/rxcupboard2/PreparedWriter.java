@@ -0,0 +1,132 @@
+package nl.nl2312.rxcupboard2;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nl.qbusict.cupboard.convert.EntityConverter;
+
+final class PreparedWriter<T> {
+
+	private final EntityConverter<T> converter;
+	private final String[] columns;
+	private final String insertSql;
+	private final String replaceSql;
+	// Statements not in use, as a stack; a write checks them out, so no lock is held while it waits for the database connection
+	private final ArrayList<Statements> idle = new ArrayList<>();
+
+	PreparedWriter(EntityConverter<T> converter, String quotedTable) {
+		this.converter = converter;
+		List<String> writable = new ArrayList<>();
+		for (EntityConverter.Column column : converter.getColumns()) {
+			// Join columns are read-only: they only exist in query results, not in the table
+			if (column.type != EntityConverter.ColumnType.JOIN) {
+				writable.add(column.name);
+			}
+		}
+		this.columns = writable.toArray(new String[writable.size()]);
+		StringBuilder names = new StringBuilder();
+		StringBuilder placeholders = new StringBuilder();
+		for (int i = 0; i < columns.length; i++) {
+			names.append(i == 0 ? "" : ", ").append('"').append(columns[i]).append('"');
+			placeholders.append(i == 0 ? "?" : ", ?");
+		}
+		String into = " into " + quotedTable + " (" + names + ") values (" + placeholders + ")";
+		// Same semantics as Cupboard: a new row without id, or insert-or-replace the row with the existing id
+		this.insertSql = "insert" + into;
+		this.replaceSql = "insert or replace" + into;
+	}
+
+	long put(SQLiteDatabase db, T entity, Long existing) {
+		Statements statements = acquire();
+		try {
+			return statements.put(db, entity, existing);
+		} finally {
+			release(db, statements);
+		}
+	}
+
+	void close() {
+		synchronized (idle) {
+			for (Statements statements : idle) {
+				statements.close();
+			}
+			idle.clear();
+		}
+	}
+
+	private Statements acquire() {
+		synchronized (idle) {
+			int size = idle.size();
+			if (size > 0) {
+				return idle.remove(size - 1);
+			}
+		}
+		// All statements are in use by concurrent writers (or none were compiled yet)
+		return new Statements();
+	}
+
+	private void release(SQLiteDatabase db, Statements statements) {
+		synchronized (idle) {
+			if (db.isOpen()) {
+				idle.add(statements);
+				return;
+			}
+		}
+		// Statements of a closed database can never be used again
+		statements.close();
+	}
+
+	private final class Statements {
+
+		// Reused for every write; its keys are never removed, so putting the values again does not allocate map entries
+		private final ContentValues values = new ContentValues(columns.length);
+		private SQLiteStatement insert;
+		private SQLiteStatement replace;
+
+		long put(SQLiteDatabase db, T entity, Long existing) {
+			// Columns the converter skips (such as a null id) are written as null rather than keeping a previous value
+			for (String column : columns) {
+				values.putNull(column);
+			}
+			converter.toValues(entity, values);
+			if (existing == null) {
+				if (insert == null) {
+					insert = db.compileStatement(insertSql);
+				}
+				long inserted = execute(insert);
+				converter.setId(inserted, entity);
+				return inserted;
+			}
+			if (replace == null) {
+				replace = db.compileStatement(replaceSql);
+			}
+			execute(replace);
+			return existing;
+		}
+
+		private long execute(SQLiteStatement statement) {
+			statement.clearBindings();
+			for (int i = 0; i < columns.length; i++) {
+				StatementCache.bind(statement, i + 1, values.get(columns[i]));
+			}
+			return statement.executeInsert();
+		}
+
+		void close() {
+			if (insert != null) {
+				insert.close();
+				insert = null;
+			}
+			if (replace != null) {
+				replace.close();
+				replace = null;
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,144 @@
+package nl.nl2312.rxcupboard2;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import io.reactivex.Single;
+import io.reactivex.functions.Consumer;
+
+/**
+ * Shares query results, in-flight or completed, between subscribers until a change to the queried entity class
+ * invalidates them. The least recently used results are evicted when their total weight exceeds the maximum.
+ */
+final class QueryCache implements ChangeListener {
+
+	private final long maxWeight;
+	private final QueryWeigher weigher;
+	private final LinkedHashMap<Key, Entry> results = new LinkedHashMap<>(16, 0.75f, true);
+	private long totalWeight;
+
+	QueryCache(long maxWeight, QueryWeigher weigher) {
+		this.maxWeight = maxWeight;
+		this.weigher = weigher;
+	}
+
+	synchronized <T> Single<List<T>> get(Class<T> entityClass, String orderBy, int limit, String selection, String[] args,
+			Callable<Single<List<T>>> query) throws Exception {
+		final Key key = new Key(entityClass, orderBy, limit, selection, args);
+		Entry entry = results.get(key);
+		if (entry == null) {
+			final Entry created = new Entry();
+			Single<List<T>> execution = query.call().doOnSuccess(new Consumer<List<T>>() {
+				@Override
+				public void accept(List<T> result) throws Exception {
+					completed(key, created, result);
+				}
+			}).doOnError(new Consumer<Throwable>() {
+				@Override
+				public void accept(Throwable throwable) throws Exception {
+					remove(key, created);
+				}
+			}).cache();
+			created.result = execution;
+			results.put(key, created);
+			entry = created;
+		}
+		// Keys include the entity class, so the cached result holds entities of this type
+		//noinspection unchecked
+		return (Single<List<T>>) (Single<?>) entry.result;
+	}
+
+	private synchronized void completed(Key key, Entry entry, List<?> result) {
+		if (results.get(key) != entry) {
+			// Invalidated while executing: subscribers that joined get the result, but it is no longer cached
+			return;
+		}
+		entry.weight = weigher.weigh(key.entityClass, result);
+		totalWeight += entry.weight;
+		Iterator<Entry> eldest = results.values().iterator();
+		while (totalWeight > maxWeight && eldest.hasNext()) {
+			Entry evicted = eldest.next();
+			totalWeight -= evicted.weight;
+			eldest.remove();
+		}
+	}
+
+	private synchronized void remove(Key key, Entry entry) {
+		if (results.get(key) == entry) {
+			totalWeight -= entry.weight;
+			results.remove(key);
+		}
+	}
+
+	@Override
+	public void onChange(DatabaseChange<?> change) {
+		invalidate(change.entityClass());
+	}
+
+	synchronized void invalidate(Class<?> entityClass) {
+		Iterator<Map.Entry<Key, Entry>> entries = results.entrySet().iterator();
+		while (entries.hasNext()) {
+			Map.Entry<Key, Entry> entry = entries.next();
+			if (entry.getKey().entityClass.equals(entityClass)) {
+				totalWeight -= entry.getValue().weight;
+				entries.remove();
+			}
+		}
+	}
+
+	synchronized void clear() {
+		results.clear();
+		totalWeight = 0;
+	}
+
+	private static final class Entry {
+
+		Single<? extends List<?>> result;
+		// Zero until the result is known
+		int weight;
+
+	}
+
+	private static final class Key {
+
+		final Class<?> entityClass;
+		final String orderBy;
+		final int limit;
+		final String selection;
+		final String[] args;
+
+		Key(Class<?> entityClass, String orderBy, int limit, String selection, String[] args) {
+			this.entityClass = entityClass;
+			this.orderBy = orderBy == null ? "" : orderBy;
+			this.limit = limit;
+			this.selection = selection == null ? "" : selection;
+			this.args = args == null ? new String[0] : args.clone();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return limit == other.limit && entityClass.equals(other.entityClass) && orderBy.equals(other.orderBy) &&
+					selection.equals(other.selection) && Arrays.equals(args, other.args);
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = 31 * entityClass.hashCode() + orderBy.hashCode();
+			hash = 31 * (31 * hash + limit) + selection.hashCode();
+			return 31 * hash + Arrays.hashCode(args);
+		}
+
+	}
+
+}
@@ -0,0 +1,97 @@
+package nl.nl2312.rxcupboard2;
+
+import android.provider.BaseColumns;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.reactivex.Emitter;
+import io.reactivex.functions.BiConsumer;
+import nl.qbusict.cupboard.DatabaseCompartment;
+import nl.qbusict.cupboard.convert.EntityConverter;
+
+final class QueryPager<T> {
+
+	private final DatabaseCompartment dc;
+	private final Class<T> entityClass;
+	private final EntityConverter<T> converter;
+	private final int pageSize;
+	private final String orderBy;
+	private final String selection;
+	private final String[] args;
+	private final ArrayList<T> page;
+	// Index of the next entity of the page to emit
+	private int position;
+	private Long lastId;
+	private int offset;
+	private boolean exhausted;
+
+	QueryPager(DatabaseCompartment dc, Class<T> entityClass, EntityConverter<T> converter, int pageSize, String orderBy,
+			String selection, String[] args) {
+		this.dc = dc;
+		this.entityClass = entityClass;
+		this.converter = converter;
+		this.pageSize = pageSize;
+		this.orderBy = orderBy;
+		this.selection = selection;
+		this.args = args;
+		this.page = new ArrayList<>(pageSize);
+	}
+
+	static <T> BiConsumer<QueryPager<T>, Emitter<T>> emitter() {
+		return new BiConsumer<QueryPager<T>, Emitter<T>>() {
+			@Override
+			public void accept(QueryPager<T> pager, Emitter<T> emitter) throws Exception {
+				pager.next(emitter);
+			}
+		};
+	}
+
+	private void next(Emitter<T> emitter) {
+		if (position == page.size() && !exhausted) {
+			// Only query the next page once the previous one was completely requested by downstream
+			fetch();
+		}
+		if (position == page.size()) {
+			emitter.onComplete();
+		} else {
+			emitter.onNext(page.get(position++));
+		}
+	}
+
+	private void fetch() {
+		List<T> fetched;
+		if (orderBy == null) {
+			// Keyset paging: continue after the last seen id, which is independent of the table size
+			DatabaseCompartment.QueryBuilder<T> query = dc.query(entityClass);
+			if (lastId == null) {
+				query.withSelection(selection, args);
+			} else {
+				String afterLast = BaseColumns._ID + " > ?";
+				String[] afterLastArgs;
+				if (args == null) {
+					afterLastArgs = new String[1];
+				} else {
+					afterLastArgs = new String[args.length + 1];
+					System.arraycopy(args, 0, afterLastArgs, 0, args.length);
+				}
+				afterLastArgs[afterLastArgs.length - 1] = Long.toString(lastId);
+				query.withSelection(TextUtils.isEmpty(selection) ? afterLast : "(" + selection + ") and " + afterLast, afterLastArgs);
+			}
+			fetched = query.orderBy(BaseColumns._ID).limit(pageSize).list();
+			if (!fetched.isEmpty()) {
+				lastId = converter.getId(fetched.get(fetched.size() - 1));
+			}
+		} else {
+			// A custom order has no usable key to continue from, so fall back to offset paging
+			fetched = dc.query(entityClass).withSelection(selection, args).orderBy(orderBy).limit(pageSize).offset(offset).list();
+			offset += fetched.size();
+		}
+		exhausted = fetched.size() < pageSize;
+		page.clear();
+		page.addAll(fetched);
+		position = 0;
+	}
+
+}
@@ -0,0 +1,12 @@
+package nl.nl2312.rxcupboard2;
+
+import java.util.List;
+
+/**
+ * Determines how much of the query cache capacity a cached query result takes.
+ */
+public interface QueryWeigher {
+
+	int weigh(Class<?> entityClass, List<?> result);
+
+}
@@ -0,0 +1,34 @@
+package nl.nl2312.rxcupboard2;
+
+import java.util.List;
+
+/**
+ * A parent entity together with the child entities that refer to it through their foreign key column.
+ */
+public final class Related<P, C> {
+
+	private final P parent;
+	private final List<C> children;
+
+	Related(P parent, List<C> children) {
+		this.parent = parent;
+		this.children = children;
+	}
+
+	public P parent() {
+		return parent;
+	}
+
+	/**
+	 * The children of the parent, in database order, or an empty list if it has none.
+	 */
+	public List<C> children() {
+		return children;
+	}
+
+	@Override
+	public String toString() {
+		return "Related{parent=" + parent + ", children=" + children + "}";
+	}
+
+}
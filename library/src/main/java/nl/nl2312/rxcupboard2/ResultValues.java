@@ -0,0 +1,49 @@
+package nl.nl2312.rxcupboard2;
+
+import android.content.ContentValues;
+
+import java.util.Arrays;
+import java.util.List;
+
+import nl.qbusict.cupboard.convert.EntityConverter;
+
+/**
+ * The converted column values of a query result, which tell whether a requery returned the same rows even though
+ * entities usually do not implement equals().
+ */
+final class ResultValues {
+
+	private final Object[][] rows;
+
+	private ResultValues(Object[][] rows) {
+		this.rows = rows;
+	}
+
+	static <T> ResultValues of(EntityConverter<T> converter, List<T> entities) {
+		List<EntityConverter.Column> columns = converter.getColumns();
+		ContentValues values = new ContentValues(columns.size());
+		Object[][] rows = new Object[entities.size()][];
+		for (int i = 0; i < rows.length; i++) {
+			values.clear();
+			converter.toValues(entities.get(i), values);
+			Object[] row = new Object[columns.size()];
+			for (int j = 0; j < row.length; j++) {
+				row[j] = values.get(columns.get(j).name);
+			}
+			rows[i] = row;
+		}
+		return new ResultValues(rows);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		// Deep, so blob columns are compared by content rather than by array instance
+		return this == o || (o instanceof ResultValues && Arrays.deepEquals(rows, ((ResultValues) o).rows));
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.deepHashCode(rows);
+	}
+
+}
@@ -0,0 +1,149 @@
+package nl.nl2312.rxcupboard2;
+
+import android.annotation.TargetApi;
+import android.database.Cursor;
+import android.os.Build;
+
+import java.util.Arrays;
+
+/**
+ * A single row of a projection query, holding only the queried column values, without hydrating any entity.
+ */
+public final class Row {
+
+	private final String[] columns;
+	private final Object[] values;
+
+	private Row(String[] columns, Object[] values) {
+		this.columns = columns;
+		this.values = values;
+	}
+
+	static Row read(Cursor cursor, String[] columns) {
+		Object[] values = new Object[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			values[i] = read(cursor, i);
+		}
+		return new Row(columns, values);
+	}
+
+	private static Object read(Cursor cursor, int index) {
+		if (cursor.isNull(index)) {
+			return null;
+		}
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+			return readTyped(cursor, index);
+		}
+		// Without column type information SQLite can still convert any value to text
+		return cursor.getString(index);
+	}
+
+	@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+	private static Object readTyped(Cursor cursor, int index) {
+		switch (cursor.getType(index)) {
+			case Cursor.FIELD_TYPE_INTEGER:
+				return cursor.getLong(index);
+			case Cursor.FIELD_TYPE_FLOAT:
+				return cursor.getDouble(index);
+			case Cursor.FIELD_TYPE_BLOB:
+				return cursor.getBlob(index);
+			default:
+				return cursor.getString(index);
+		}
+	}
+
+	public int size() {
+		return columns.length;
+	}
+
+	public String column(int index) {
+		return columns[index];
+	}
+
+	/**
+	 * Index of the column with the given name, or -1 if it was not queried.
+	 */
+	public int indexOf(String column) {
+		for (int i = 0; i < columns.length; i++) {
+			if (columns[i].equalsIgnoreCase(column)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	Object get(int index) {
+		return values[index];
+	}
+
+	public boolean isNull(String column) {
+		return values[index(column)] == null;
+	}
+
+	public boolean isNull(int index) {
+		return values[index] == null;
+	}
+
+	public Long getLong(String column) {
+		return getLong(index(column));
+	}
+
+	public Long getLong(int index) {
+		Object value = values[index];
+		if (value == null || value instanceof Long) {
+			return (Long) value;
+		}
+		return value instanceof Number ? ((Number) value).longValue() : Long.valueOf(value.toString());
+	}
+
+	public Double getDouble(String column) {
+		return getDouble(index(column));
+	}
+
+	public Double getDouble(int index) {
+		Object value = values[index];
+		if (value == null || value instanceof Double) {
+			return (Double) value;
+		}
+		return value instanceof Number ? ((Number) value).doubleValue() : Double.valueOf(value.toString());
+	}
+
+	public String getString(String column) {
+		return getString(index(column));
+	}
+
+	public String getString(int index) {
+		Object value = values[index];
+		return value == null ? null : value.toString();
+	}
+
+	public byte[] getBlob(String column) {
+		return getBlob(index(column));
+	}
+
+	public byte[] getBlob(int index) {
+		return (byte[]) values[index];
+	}
+
+	private int index(String column) {
+		int index = indexOf(column);
+		if (index < 0) {
+			throw new IllegalArgumentException("Column " + column + " is not part of this row");
+		}
+		return index;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("Row{");
+		for (int i = 0; i < columns.length; i++) {
+			if (i > 0) {
+				builder.append(", ");
+			}
+			Object value = values[i];
+			builder.append(columns[i]).append('=').append(value instanceof byte[] ? Arrays.toString((byte[]) value) : value);
+		}
+		return builder.append('}').toString();
+	}
+
+}
@@ -0,0 +1,94 @@
+package nl.nl2312.rxcupboard2;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+import java.util.List;
+
+/**
+ * Read-only cursor over rows that were already read from the database, so entities can be converted from them on any
+ * thread while the original cursor moves on.
+ */
+final class RowCursor extends AbstractCursor {
+
+	private final String[] columns;
+	private final List<Row> rows;
+
+	RowCursor(String[] columns, List<Row> rows) {
+		this.columns = columns;
+		this.rows = rows;
+	}
+
+	private Row row() {
+		return rows.get(getPosition());
+	}
+
+	@Override
+	public int getCount() {
+		return rows.size();
+	}
+
+	@Override
+	public String[] getColumnNames() {
+		return columns;
+	}
+
+	@Override
+	public String getString(int column) {
+		return row().getString(column);
+	}
+
+	@Override
+	public short getShort(int column) {
+		return (short) getLong(column);
+	}
+
+	@Override
+	public int getInt(int column) {
+		return (int) getLong(column);
+	}
+
+	@Override
+	public long getLong(int column) {
+		// Like a regular cursor, null is read as 0
+		Long value = row().getLong(column);
+		return value == null ? 0 : value;
+	}
+
+	@Override
+	public float getFloat(int column) {
+		return (float) getDouble(column);
+	}
+
+	@Override
+	public double getDouble(int column) {
+		Double value = row().getDouble(column);
+		return value == null ? 0 : value;
+	}
+
+	@Override
+	public byte[] getBlob(int column) {
+		return row().getBlob(column);
+	}
+
+	@Override
+	public int getType(int column) {
+		Object value = row().get(column);
+		if (value == null) {
+			return Cursor.FIELD_TYPE_NULL;
+		} else if (value instanceof Long) {
+			return Cursor.FIELD_TYPE_INTEGER;
+		} else if (value instanceof Double) {
+			return Cursor.FIELD_TYPE_FLOAT;
+		} else if (value instanceof byte[]) {
+			return Cursor.FIELD_TYPE_BLOB;
+		}
+		return Cursor.FIELD_TYPE_STRING;
+	}
+
+	@Override
+	public boolean isNull(int column) {
+		return row().isNull(column);
+	}
+
+}
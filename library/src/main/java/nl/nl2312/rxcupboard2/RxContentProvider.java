@@ -4,9 +4,12 @@ import android.content.ContentUris;
 import android.content.Context;
 import android.net.Uri;
 
+import org.reactivestreams.Publisher;
+
 import java.util.concurrent.Callable;
 
 import io.reactivex.Flowable;
+import io.reactivex.Scheduler;
 import io.reactivex.functions.Consumer;
 import nl.qbusict.cupboard.Cupboard;
 import nl.qbusict.cupboard.ProviderCompartment;
@@ -15,64 +18,128 @@ public class RxContentProvider {
 
 	private final ProviderCompartment provider;
 	private final Uri uri;
+	private final Scheduler readScheduler;
+	private final Scheduler writeScheduler;
 
-	RxContentProvider(Cupboard cupboard, Context context, Uri uri) {
+	RxContentProvider(Cupboard cupboard, Context context, Uri uri, RxCupboardOptions options) {
 		this.provider = cupboard.withContext(context);
 		this.uri = uri;
+		this.readScheduler = options.readScheduler;
+		this.writeScheduler = options.writeScheduler;
 	}
 
-	public <T> Flowable<T> put(T entity) {
-		provider.put(uri, entity);
-		return Flowable.just(entity);
+	public <T> Flowable<T> put(final T entity) {
+		return onWriter(Flowable.fromCallable(new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				provider.put(uri, entity);
+				return entity;
+			}
+		}));
 	}
 
+	/**
+	 * Consumer that stores every entity it accepts. With a write scheduler the entities are stored on it, in order, but
+	 * without waiting for them; failures then go to the global error handler, so use put(T) to handle them instead.
+	 */
 	public <T> Consumer<T> put() {
 		return new Consumer<T>() {
 			@Override
 			public void accept(T t) throws Exception {
-				put(t);
+				if (writeScheduler == null) {
+					provider.put(uri, t);
+				} else {
+					// Hand the write to the writer, rather than writing on whatever thread emits
+					put(t).subscribe();
+				}
 			}
 		};
 	}
 
-	public <T> Flowable<T> delete(T entity) {
-		provider.delete(uri, entity);
-		return Flowable.just(entity);
+	public <T> Flowable<T> delete(final T entity) {
+		return onWriter(Flowable.fromCallable(new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				provider.delete(uri, entity);
+				return entity;
+			}
+		}));
 	}
 
-	public <T> Flowable<Integer> deleteCount(T entity) {
-		return Flowable.just(provider.delete(uri, entity));
+	public <T> Flowable<Integer> deleteCount(final T entity) {
+		return onWriter(Flowable.fromCallable(new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				return provider.delete(uri, entity);
+			}
+		}));
 	}
 
+	/**
+	 * Consumer that deletes every entity it accepts. With a write scheduler the entities are deleted on it, in order,
+	 * but without waiting for them; failures then go to the global error handler, so use delete(T) to handle them instead.
+	 */
 	public <T> Consumer<T> delete() {
 		return new Consumer<T>() {
 			@Override
 			public void accept(T t) throws Exception {
-				delete(t);
+				if (writeScheduler == null) {
+					provider.delete(uri, t);
+				} else {
+					delete(t).subscribe();
+				}
 			}
 		};
 	}
 
 	public <T> Flowable<T> get(final Class<T> entityClass, final long id) {
-		return Flowable.fromCallable(new Callable<T>() {
+		return onReader(Flowable.fromCallable(new Callable<T>() {
 			@Override
 			public T call() throws Exception {
 				Uri getUri = ContentUris.withAppendedId(uri, id);
 				return provider.get(getUri, entityClass);
 			}
+		}));
+	}
+
+	public <T> Flowable<T> query(final Class<T> entityClass) {
+		return query(new Callable<Publisher<T>>() {
+			@Override
+			public Publisher<T> call() throws Exception {
+				return Flowable.fromIterable(provider.query(uri, entityClass).query());
+			}
+		});
+	}
+
+	public <T> Flowable<T> query(final Class<T> entityClass, final String selection, final String... args) {
+		return query(new Callable<Publisher<T>>() {
+			@Override
+			public Publisher<T> call() throws Exception {
+				return Flowable.fromIterable(provider.query(uri, entityClass).withSelection(selection, args).query());
+			}
+		});
+	}
+
+	public <T> Flowable<T> query(final ProviderCompartment.QueryBuilder<T> preparedQuery) {
+		return query(new Callable<Publisher<T>>() {
+			@Override
+			public Publisher<T> call() throws Exception {
+				return Flowable.fromIterable(preparedQuery.query());
+			}
 		});
 	}
 
-	public <T> Flowable<T> query(Class<T> entityClass) {
-		return Flowable.fromIterable(provider.query(uri, entityClass).query());
+	private <T> Flowable<T> query(Callable<Publisher<T>> query) {
+		// Only query the provider when subscribed to, on the reader scheduler (if any)
+		return onReader(Flowable.defer(query));
 	}
 
-	public <T> Flowable<T> query(Class<T> entityClass, String selection, String... args) {
-		return Flowable.fromIterable(provider.query(uri, entityClass).withSelection(selection, args).query());
+	private <T> Flowable<T> onReader(Flowable<T> flowable) {
+		return readScheduler == null ? flowable : flowable.subscribeOn(readScheduler);
 	}
 
-	public <T> Flowable<T> query(ProviderCompartment.QueryBuilder<T> preparedQuery) {
-		return Flowable.fromIterable(preparedQuery.query());
+	private <T> Flowable<T> onWriter(Flowable<T> flowable) {
+		return writeScheduler == null ? flowable : flowable.subscribeOn(writeScheduler);
 	}
 
 }
@@ -14,19 +14,35 @@ public class RxCupboard {
 	}
 
 	public static RxDatabase with(Cupboard cupboard, SQLiteDatabase db) {
-		return new RxDatabase(cupboard, cupboard.withDatabase(db), db);
+		return with(cupboard, db, new RxCupboardOptions());
+	}
+
+	public static RxDatabase with(Cupboard cupboard, SQLiteDatabase db, RxCupboardOptions options) {
+		return new RxDatabase(DatabaseEngine.of(cupboard, db), options);
 	}
 
 	public static RxDatabase withDefault(SQLiteDatabase db) {
-		return new RxDatabase(CupboardFactory.cupboard(), CupboardFactory.cupboard().withDatabase(db), db);
+		return with(CupboardFactory.cupboard(), db);
+	}
+
+	public static RxDatabase withDefault(SQLiteDatabase db, RxCupboardOptions options) {
+		return with(CupboardFactory.cupboard(), db, options);
 	}
 
 	public static RxContentProvider with(Cupboard cupboard, Context context, Uri uri) {
-		return new RxContentProvider(cupboard, context, uri);
+		return with(cupboard, context, uri, new RxCupboardOptions());
+	}
+
+	public static RxContentProvider with(Cupboard cupboard, Context context, Uri uri, RxCupboardOptions options) {
+		return new RxContentProvider(cupboard, context, uri, options);
 	}
 
 	public static RxContentProvider withDefault(Context context, Uri uri) {
-		return new RxContentProvider(CupboardFactory.cupboard(), context, uri);
+		return with(CupboardFactory.cupboard(), context, uri);
+	}
+
+	public static RxContentProvider withDefault(Context context, Uri uri, RxCupboardOptions options) {
+		return with(CupboardFactory.cupboard(), context, uri, options);
 	}
 
 	public static RxCursor with(Cupboard cupboard, Cursor cursor) {
@@ -0,0 +1,157 @@
+package nl.nl2312.rxcupboard2;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.Schedulers;
+
+public final class RxCupboardOptions {
+
+	// Shared, so options with the same maximum number of results share their query cache
+	private static final QueryWeigher COUNT_RESULTS = new QueryWeigher() {
+		@Override
+		public int weigh(Class<?> entityClass, List<?> result) {
+			return 1;
+		}
+	};
+
+	boolean preparedWrites;
+	boolean idOnlyDeletes;
+	Scheduler readScheduler;
+	Scheduler writeScheduler;
+	boolean writeAheadLogging;
+	int entityCacheSize;
+	long queryCacheWeight;
+	QueryWeigher queryWeigher;
+
+	/**
+	 * Store entities through a compiled insert statement per entity class, binding the converted values directly,
+	 * rather than letting Cupboard and SQLiteDatabase build and parse a new statement for every put.
+	 */
+	public RxCupboardOptions preparedWrites(boolean preparedWrites) {
+		this.preparedWrites = preparedWrites;
+		return this;
+	}
+
+	/**
+	 * Reports deletes by id with only the id, instead of loading the entity before deleting it. The entity() of such a
+	 * DatabaseDelete is created on demand and has only its id set, so subscribers should rely on id() instead.
+	 */
+	public RxCupboardOptions idOnlyDeletes(boolean idOnlyDeletes) {
+		this.idOnlyDeletes = idOnlyDeletes;
+		return this;
+	}
+
+	/**
+	 * Keeps up to maxSize recently read or written entities in memory, by class and id, and serves get() from it.
+	 * Cached instances are shared, and kept up to date by committed puts and deletes made through RxCupboard.
+	 * Entities should therefore be treated as immutable and the database should not be written to in other ways.
+	 */
+	public RxCupboardOptions entityCache(int maxSize) {
+		this.entityCacheSize = maxSize;
+		return this;
+	}
+
+	/**
+	 * Caches up to maxResults results of cachedQuery, regardless of their size.
+	 */
+	public RxCupboardOptions queryCache(int maxResults) {
+		return queryCache(maxResults, COUNT_RESULTS);
+	}
+
+	/**
+	 * Caches results of cachedQuery until their total weight, as determined by the weigher, exceeds maxWeight. Results
+	 * are shared by all subscribers of the same query until an entity of the queried class changes.
+	 */
+	public RxCupboardOptions queryCache(long maxWeight, QueryWeigher weigher) {
+		this.queryCacheWeight = maxWeight;
+		this.queryWeigher = weigher;
+		return this;
+	}
+
+	/**
+	 * Scheduler on which all queries, gets and counts are executed when subscribed to. By default these run on the
+	 * subscribing thread.
+	 */
+	public RxCupboardOptions readScheduler(Scheduler readScheduler) {
+		this.readScheduler = readScheduler;
+		return this;
+	}
+
+	/**
+	 * Scheduler on which all puts, deletes and transactions are executed when subscribed to. This should execute
+	 * work serially, on a single thread. By default these run on the subscribing thread.
+	 */
+	public RxCupboardOptions writeScheduler(Scheduler writeScheduler) {
+		this.writeScheduler = writeScheduler;
+		return this;
+	}
+
+	/**
+	 * Reads on the io() scheduler and writes on a single, shared writer thread.
+	 */
+	public RxCupboardOptions backgroundSchedulers() {
+		return readScheduler(Schedulers.io()).writeScheduler(WriterHolder.WRITER);
+	}
+
+	/**
+	 * Enables write-ahead logging on the database (from API 11) and executes all writes serially on a single, shared
+	 * writer thread while queries, gets and counts run in parallel on a fixed pool of reader threads. With WAL the
+	 * platform keeps a pool of read-only connections, so readers no longer wait for the writer or for each other.
+	 * Changes are published from the writer thread, in commit order.
+	 * @param readers The number of reader threads, typically the number of available processors
+	 */
+	public RxCupboardOptions writeAheadLogging(int readers) {
+		if (readers < 1) {
+			throw new IllegalArgumentException("At least one reader thread is required");
+		}
+		this.writeAheadLogging = true;
+		return readScheduler(ReadersHolder.readers(readers)).writeScheduler(WriterHolder.WRITER);
+	}
+
+	private static final class WriterHolder {
+
+		static final Scheduler WRITER = Schedulers.from(Executors.newSingleThreadExecutor(new NamedThreadFactory("RxCupboard-writer")));
+
+	}
+
+	private static final class ReadersHolder {
+
+		// Like the writer, the reader pools are shared by all options and never shut down, so one per reader count
+		private static final Map<Integer, Scheduler> READERS = new HashMap<>();
+
+		static synchronized Scheduler readers(int count) {
+			Scheduler readers = READERS.get(count);
+			if (readers == null) {
+				readers = Schedulers.from(Executors.newFixedThreadPool(count, new NamedThreadFactory("RxCupboard-reader")));
+				READERS.put(count, readers);
+			}
+			return readers;
+		}
+
+	}
+
+	private static final class NamedThreadFactory implements ThreadFactory {
+
+		private final String name;
+		private final AtomicInteger count = new AtomicInteger();
+
+		NamedThreadFactory(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+
+	}
+
+}
@@ -2,6 +2,10 @@ package nl.nl2312.rxcupboard2;
 
 import android.database.Cursor;
 
+import org.reactivestreams.Publisher;
+
+import java.util.concurrent.Callable;
+
 import io.reactivex.Flowable;
 import nl.qbusict.cupboard.Cupboard;
 import nl.qbusict.cupboard.CursorCompartment;
@@ -14,8 +18,14 @@ public class RxCursor {
 		this.cursor = cupboard.withCursor(cursor);
 	}
 
-	public <T> Flowable<T> iterate(Class<T> entityClass) {
-		return Flowable.fromIterable(cursor.iterate(entityClass));
+	public <T> Flowable<T> iterate(final Class<T> entityClass) {
+		// Only start iterating (moving the cursor) when subscribed to
+		return Flowable.defer(new Callable<Publisher<T>>() {
+			@Override
+			public Publisher<T> call() throws Exception {
+				return Flowable.fromIterable(cursor.iterate(entityClass));
+			}
+		});
 	}
 
 }
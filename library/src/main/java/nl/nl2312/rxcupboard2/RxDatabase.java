@@ -1,20 +1,40 @@
 package nl.nl2312.rxcupboard2;
 
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.os.Build;
+import android.provider.BaseColumns;
+import android.text.TextUtils;
 
 import org.reactivestreams.Publisher;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
+import io.reactivex.Completable;
+import io.reactivex.CompletableSource;
+import io.reactivex.Emitter;
 import io.reactivex.Flowable;
 import io.reactivex.FlowableTransformer;
+import io.reactivex.Maybe;
+import io.reactivex.Scheduler;
 import io.reactivex.Single;
+import io.reactivex.SingleSource;
 import io.reactivex.annotations.Experimental;
 import io.reactivex.functions.Action;
+import io.reactivex.functions.BiConsumer;
 import io.reactivex.functions.Consumer;
 import io.reactivex.functions.Function;
 import io.reactivex.functions.Predicate;
-import io.reactivex.processors.PublishProcessor;
+import io.reactivex.schedulers.Schedulers;
 import nl.qbusict.cupboard.Cupboard;
 import nl.qbusict.cupboard.DatabaseCompartment;
 import nl.qbusict.cupboard.QueryResultIterable;
@@ -22,188 +42,311 @@ import nl.qbusict.cupboard.convert.EntityConverter;
 
 public class RxDatabase {
 
+	private static final int DEFAULT_BATCH_SIZE = 100;
+	private static final long DEFAULT_REQUERY_DEBOUNCE = 50;
+	private static final Object REQUERY = new Object();
+	// Well under SQLite's default limit of 999 bound variables per statement
+	private static final int MAX_IN_IDS = 500;
+	private static final int HYDRATION_CHUNK_SIZE = 256;
+
+	private final DatabaseEngine engine;
 	private final Cupboard cupboard;
 	private final DatabaseCompartment dc;
 	private final SQLiteDatabase db;
-	private final PublishProcessor<DatabaseChange> triggers = PublishProcessor.create();
+	private final ChangeDispatcher dispatcher;
+	private final ThreadLocal<PendingChanges> pendingChanges;
+	private final StatementCache statements;
+	private final boolean preparedWrites;
+	private final boolean idOnlyDeletes;
+	private final Scheduler readScheduler;
+	private final Scheduler writeScheduler;
+	private final EntityCache cache;
+	private final QueryCache queryCache;
+	// Stateless, so one instance of each is shared by all callers
+	private final Consumer<Object> putConsumer = new Consumer<Object>() {
+		@Override
+		public void accept(Object entity) throws Exception {
+			if (writeScheduler == null || inTransactionScope()) {
+				putDirect(entity);
+			} else {
+				// Hand the write to the writer, rather than writing on whatever thread emits
+				put(entity).subscribe();
+			}
+		}
+	};
+	private final Consumer<Object> deleteConsumer = new Consumer<Object>() {
+		@Override
+		public void accept(Object entity) throws Exception {
+			if (writeScheduler == null || inTransactionScope()) {
+				deleteDirect(entity);
+			} else {
+				delete(entity).subscribe();
+			}
+		}
+	};
 
-	RxDatabase(Cupboard cupboard, DatabaseCompartment dc, SQLiteDatabase db) {
-		this.cupboard = cupboard;
-		this.dc = dc;
-		this.db = db;
+	RxDatabase(DatabaseEngine engine, RxCupboardOptions options) {
+		// Changes, transactions and compiled statements are shared with all other instances on this database
+		this.engine = engine;
+		this.cupboard = engine.cupboard;
+		this.dc = engine.dc;
+		this.db = engine.db;
+		this.dispatcher = engine.dispatcher;
+		this.pendingChanges = engine.pendingChanges;
+		this.statements = engine.statements;
+		this.preparedWrites = options.preparedWrites;
+		this.idOnlyDeletes = options.idOnlyDeletes;
+		this.readScheduler = options.readScheduler;
+		this.writeScheduler = options.writeScheduler;
+		// Caches are shared with other instances with the same cache options, and kept up to date by the engine
+		this.cache = options.entityCacheSize > 0 ? engine.entityCache(options.entityCacheSize) : null;
+		this.queryCache = options.queryCacheWeight > 0 ? engine.queryCache(options.queryCacheWeight, options.queryWeigher) : null;
+		if (options.writeAheadLogging && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+			engine.enableWriteAheadLogging();
+		}
 	}
 
 	public Flowable<DatabaseChange> changes() {
-		return triggers.hide();
+		return engine.observed(dispatcher.channels(Object.class).changes.hide());
 	}
 
 	public <T> Flowable<DatabaseChange<T>> changes(final Class<T> entityClass) {
-		return triggers.filter(isEventOf(entityClass)).map(new Function<DatabaseChange, DatabaseChange<T>>() {
+		return engine.observed(dispatcher.channels(entityClass).changes.map(new Function<DatabaseChange, DatabaseChange<T>>() {
 			@Override
 			public DatabaseChange<T> apply(DatabaseChange raw) throws Exception {
 				// Cast as we are now sure to have only DatabaseChange events of type T
 				//noinspection unchecked
 				return raw;
 			}
-		}).hide();
+		}).hide());
+	}
+
+	/**
+	 * All database changes, of which at most a bounded number is held back while the subscriber cannot keep up.
+	 */
+	public Flowable<DatabaseChange> changes(ChangeBackpressure<DatabaseChange> backpressure) {
+		return changes().compose(backpressure);
+	}
+
+	/**
+	 * Changes of one entity class, of which at most a bounded number is held back while the subscriber cannot keep up.
+	 */
+	public <T> Flowable<DatabaseChange<T>> changes(Class<T> entityClass, ChangeBackpressure<DatabaseChange<T>> backpressure) {
+		return changes(entityClass).compose(backpressure);
 	}
 
 	public Flowable<DatabaseChange.DatabaseInsert> inserts() {
-		return triggers.ofType(DatabaseChange.DatabaseInsert.class).hide();
+		return engine.observed(dispatcher.channels(Object.class).inserts.ofType(DatabaseChange.DatabaseInsert.class).hide());
 	}
 
 	public <T> Flowable<DatabaseChange.DatabaseInsert<T>> inserts(final Class<T> entityClass) {
-		return triggers.filter(isEventOf(entityClass)).ofType(DatabaseChange.DatabaseInsert.class).map(new Function<DatabaseChange
-				.DatabaseInsert, DatabaseChange.DatabaseInsert<T>>() {
+		return engine.observed(dispatcher.channels(entityClass).inserts.map(new Function<DatabaseChange, DatabaseChange.DatabaseInsert<T>>() {
 			@Override
-			public DatabaseChange.DatabaseInsert<T> apply(DatabaseChange.DatabaseInsert raw) throws Exception {
-				// Cast as we are now sure to have only DatabaseChange events of type T
+			public DatabaseChange.DatabaseInsert<T> apply(DatabaseChange raw) throws Exception {
+				// Cast as we are now sure to have only DatabaseInsert events of type T
 				//noinspection unchecked
-				return raw;
+				return (DatabaseChange.DatabaseInsert<T>) raw;
 			}
-		}).hide();
+		}).hide());
 	}
 
 	public Flowable<DatabaseChange.DatabaseUpdate> updates() {
-		return triggers.ofType(DatabaseChange.DatabaseUpdate.class).hide();
+		return engine.observed(dispatcher.channels(Object.class).updates.ofType(DatabaseChange.DatabaseUpdate.class).hide());
 	}
 
 	public <T> Flowable<DatabaseChange.DatabaseUpdate<T>> updates(final Class<T> entityClass) {
-		return triggers.filter(isEventOf(entityClass)).ofType(DatabaseChange.DatabaseUpdate.class).map(new Function<DatabaseChange
-				.DatabaseUpdate, DatabaseChange.DatabaseUpdate<T>>() {
+		return engine.observed(dispatcher.channels(entityClass).updates.map(new Function<DatabaseChange, DatabaseChange.DatabaseUpdate<T>>() {
 			@Override
-			public DatabaseChange.DatabaseUpdate<T> apply(DatabaseChange.DatabaseUpdate raw) throws Exception {
-				// Cast as we are now sure to have only DatabaseChange events of type T
+			public DatabaseChange.DatabaseUpdate<T> apply(DatabaseChange raw) throws Exception {
+				// Cast as we are now sure to have only DatabaseUpdate events of type T
 				//noinspection unchecked
-				return raw;
+				return (DatabaseChange.DatabaseUpdate<T>) raw;
 			}
-		}).hide();
+		}).hide());
 	}
 
 	public Flowable<DatabaseChange.DatabaseDelete> deletes() {
-		return triggers.ofType(DatabaseChange.DatabaseDelete.class).hide();
+		return engine.observed(dispatcher.channels(Object.class).deletes.ofType(DatabaseChange.DatabaseDelete.class).hide());
 	}
 
 	public <T> Flowable<DatabaseChange.DatabaseDelete<T>> deletes(final Class<T> entityClass) {
-		return triggers.filter(isEventOf(entityClass)).ofType(DatabaseChange.DatabaseDelete.class).map(new Function<DatabaseChange
-				.DatabaseDelete, DatabaseChange.DatabaseDelete<T>>() {
+		return engine.observed(dispatcher.channels(entityClass).deletes.map(new Function<DatabaseChange, DatabaseChange.DatabaseDelete<T>>() {
 			@Override
-			public DatabaseChange.DatabaseDelete<T> apply(DatabaseChange.DatabaseDelete raw) throws Exception {
-				// Cast as we are now sure to have only DatabaseChange events of type T
+			public DatabaseChange.DatabaseDelete<T> apply(DatabaseChange raw) throws Exception {
+				// Cast as we are now sure to have only DatabaseDelete events of type T
 				//noinspection unchecked
-				return raw;
+				return (DatabaseChange.DatabaseDelete<T>) raw;
 			}
-		}).hide();
+		}).hide());
 	}
 
-	private <T> Predicate<DatabaseChange> isEventOf(final Class<T> entityClass) {
-		return new Predicate<DatabaseChange>() {
-			@Override
-			public boolean test(DatabaseChange event) throws Exception {
-				// Only let through change events for a specific table/class
-				return entityClass.isAssignableFrom(event.entityClass());
-			}
-		};
+	public <T> Flowable<List<DatabaseChange<T>>> batchedChanges(Class<T> entityClass, long timespan, TimeUnit unit) {
+		return batchedChanges(entityClass, timespan, unit, Integer.MAX_VALUE);
+	}
+
+	public <T> Flowable<List<DatabaseChange<T>>> batchedChanges(Class<T> entityClass, long timespan, TimeUnit unit, int maxCount) {
+		// Collect changes per time window (or until maxCount arrived) and collapse them into the net change per entity
+		return changes(entityClass)
+				.buffer(timespan, unit, maxCount)
+				.map(new ChangeCoalescer<T>())
+				.filter(new Predicate<List<DatabaseChange<T>>>() {
+					@Override
+					public boolean test(List<DatabaseChange<T>> changes) throws Exception {
+						// Skip time windows without (net) changes
+						return !changes.isEmpty();
+					}
+				});
 	}
 
 
 	@SuppressWarnings("unchecked") // Cupboard EntityConverter type is lost as it only accepts Class<?>
 	@Deprecated
 	public <T> long putDirect(T entity) {
-		EntityConverter<T> entityConverter = cupboard.getEntityConverter((Class<T>) entity.getClass());
-		Long existing = entityConverter.getId(entity);
-		long inserted = dc.put(entity);
+		// Converter, table and writer are looked up once per class; no change is created if nobody observes the class
+		EntityMeta<T> meta = engine.meta((Class<T>) entity.getClass());
+		Long existing = meta.converter.getId(entity);
+		long inserted;
+		if (preparedWrites) {
+			inserted = meta.writer().put(db, entity, existing);
+		} else {
+			inserted = dc.put(entity);
+		}
 		if (existing == null) {
-			if (triggers.hasSubscribers()) {
-				triggers.onNext(DatabaseChange.insert(entity));
+			if (engine.publishing(meta.entityClass)) {
+				publish(DatabaseChange.insert(entity, inserted));
 			}
 			return inserted;
 		} else {
-			if (triggers.hasSubscribers()) {
-				triggers.onNext(DatabaseChange.update(entity));
+			if (engine.publishing(meta.entityClass)) {
+				publish(DatabaseChange.update(entity, existing));
 			}
 			return existing;
 		}
 	}
 
+	public <T> Flowable<List<T>> putAll(Iterable<T> entities) {
+		return putAll(Flowable.fromIterable(entities), DEFAULT_BATCH_SIZE);
+	}
+
+	public <T> Flowable<List<T>> putAll(Iterable<T> entities, int batchSize) {
+		return putAll(Flowable.fromIterable(entities), batchSize);
+	}
+
+	public <T> Flowable<List<T>> putAll(Flowable<T> entities) {
+		return putAll(entities, DEFAULT_BATCH_SIZE);
+	}
+
+	public <T> Flowable<List<T>> putAll(Flowable<T> entities, int batchSize) {
+		// Every batch is stored in a single transaction and emitted (with its change events) only once committed
+		return observeOnWriter(entities.buffer(batchSize)).map(new Function<List<T>, List<T>>() {
+			@Override
+			public List<T> apply(final List<T> batch) throws Exception {
+				return transactionDirect(new Callable<List<T>>() {
+					@Override
+					public List<T> call() throws Exception {
+						for (T entity : batch) {
+							putDirect(entity);
+						}
+						return batch;
+					}
+				});
+			}
+		});
+	}
+
 	public <T> Single<T> put(final T entity) {
-		return Single.fromCallable(new Callable<T>() {
+		return onWriter(Single.fromCallable(new Callable<T>() {
 			@Override
 			public T call() throws Exception {
 				putDirect(entity);
 				return entity;
 			}
-		});
+		}));
 	}
 
+	/**
+	 * Consumer that stores every entity it accepts. With a write scheduler the entities are stored on it, in order, but
+	 * without waiting for them; failures then go to the global error handler, so use put(T) to handle them instead.
+	 */
+	@SuppressWarnings("unchecked") // The consumer accepts any entity
 	public <T> Consumer<T> put() {
-		return new Consumer<T>() {
-			@Override
-			public void accept(T t) throws Exception {
-				putDirect(t);
-			}
-		};
+		return (Consumer<T>) putConsumer;
 	}
 
+	@SuppressWarnings("unchecked") // Cupboard EntityConverter type is lost as it only accepts Class<?>
 	@Deprecated
 	public <T> boolean deleteDirect(T entity) {
 		boolean result = dc.delete(entity);
-		if (result && triggers.hasSubscribers()) {
-			triggers.onNext(DatabaseChange.delete(entity));
+		if (result && engine.publishing(entity.getClass())) {
+			publish(DatabaseChange.delete(entity, engine.meta((Class<T>) entity.getClass()).converter));
 		}
 		return result;
 	}
 
 	public <T> Single<T> delete(final T entity) {
-		return Single.fromCallable(new Callable<T>() {
+		return onWriter(Single.fromCallable(new Callable<T>() {
 			@Override
 			public T call() throws Exception {
 				deleteDirect(entity);
 				return entity;
 			}
-		});
+		}));
 	}
 
 	@Deprecated
 	public <T> boolean deleteDirect(Class<T> entityClass, long id) {
-		boolean result;
-		if (triggers.hasSubscribers()) {
-			// We have subscribers to database change events, so we need to look up the item to report it back
+		if (!idOnlyDeletes && dispatcher.hasSubscribers(entityClass)) {
+			// We have subscribers to database change events, so we need to look up the item to report it back; the
+			// caches only use the id, so for them alone the row is not loaded
 			T entity = dc.get(entityClass, id);
-			result = dc.delete(entity);
-			if (result) {
-				triggers.onNext(DatabaseChange.delete(entity));
-			}
+			return entity != null && deleteDirect(entity);
+		}
+		boolean result;
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+			result = statements.executeUpdateDelete(entityClass, StatementCache.Kind.DELETE_BY_ID, null,
+					"delete from " + quotedTable(entityClass) + " where " + BaseColumns._ID + " = ?", Long.toString(id)) > 0;
 		} else {
-			// Straightforward delete without change propagation
 			result = dc.delete(entityClass, id);
 		}
+		if (result && engine.publishing(entityClass)) {
+			// Report only the id; subscribers that need an entity get one (with only the id set) on demand
+			publish(DatabaseChange.delete(entityClass, id, engine.meta(entityClass).converter));
+		}
 		return result;
 	}
 
 	public <T> Single<Boolean> delete(final Class<T> entityClass, final long id) {
-		return Single.fromCallable(new Callable<Boolean>() {
+		return onWriter(Single.fromCallable(new Callable<Boolean>() {
 			@Override
 			public Boolean call() throws Exception {
 				return deleteDirect(entityClass, id);
 			}
-		});
+		}));
 	}
 
 	@Experimental
 	public <T> Single<Long> delete(final Class<T> entityClass, final String selection, final String... selectionArgs) {
-		if (triggers.hasSubscribers()) {
-			return query(entityClass, selection, selectionArgs)
-					.doOnNext(this.<T>delete())
-					.count();
-		} else {
-			return Single.fromCallable(new Callable<Long>() {
-				@Override
-				public Long call() throws Exception {
+		return onWriter(Single.fromCallable(new Callable<Long>() {
+			@Override
+			public Long call() throws Exception {
+				if (!engine.publishing(entityClass)) {
+					// Straightforward delete without change propagation
 					return (long) dc.delete(entityClass, selection, selectionArgs);
 				}
-			});
-		}
+				return transactionDirect(new Callable<Long>() {
+					@Override
+					public Long call() throws Exception {
+						// Collect the ids to report in one pass, then delete all rows with a single statement
+						long[] ids = queryIdsDirect(entityClass, selection, selectionArgs);
+						int deleted = dc.delete(entityClass, selection, selectionArgs);
+						if (ids.length > 0) {
+							publish(DatabaseChange.deleteAll(entityClass, ids));
+						}
+						return (long) deleted;
+					}
+				});
+			}
+		}));
 	}
 
 	@Experimental
@@ -211,37 +354,490 @@ public class RxDatabase {
 		return delete(entityClass, "");
 	}
 
-	public <T> Consumer<T> delete() {
-		return new Consumer<T>() {
+	public <T> Flowable<List<T>> deleteAll(Iterable<T> entities) {
+		return deleteAll(Flowable.fromIterable(entities), DEFAULT_BATCH_SIZE);
+	}
+
+	public <T> Flowable<List<T>> deleteAll(Iterable<T> entities, int batchSize) {
+		return deleteAll(Flowable.fromIterable(entities), batchSize);
+	}
+
+	public <T> Flowable<List<T>> deleteAll(Flowable<T> entities) {
+		return deleteAll(entities, DEFAULT_BATCH_SIZE);
+	}
+
+	public <T> Flowable<List<T>> deleteAll(Flowable<T> entities, int batchSize) {
+		// Every batch is deleted in a single transaction and emitted (with its change events) only once committed
+		return observeOnWriter(entities.buffer(batchSize)).map(new Function<List<T>, List<T>>() {
 			@Override
-			public void accept(T t) throws Exception {
-				deleteDirect(t);
+			public List<T> apply(final List<T> batch) throws Exception {
+				return transactionDirect(new Callable<List<T>>() {
+					@Override
+					public List<T> call() throws Exception {
+						for (T entity : batch) {
+							deleteDirect(entity);
+						}
+						return batch;
+					}
+				});
 			}
-		};
+		});
+	}
+
+	/**
+	 * Consumer that deletes every entity it accepts. With a write scheduler the entities are deleted on it, in order,
+	 * but without waiting for them; failures then go to the global error handler, so use delete(T) to handle them instead.
+	 */
+	@SuppressWarnings("unchecked") // The consumer accepts any entity
+	public <T> Consumer<T> delete() {
+		return (Consumer<T>) deleteConsumer;
 	}
 
 	public <T> Single<T> get(final Class<T> entityClass, final long id) {
-		return Single.fromCallable(new Callable<T>() {
+		return onReader(Single.fromCallable(new Callable<T>() {
 			@Override
 			public T call() throws Exception {
-				return dc.get(entityClass, id);
+				if (cache == null || inTransactionScope()) {
+					// Inside a transaction the cache may not reflect the uncommitted changes yet
+					return dc.get(entityClass, id);
+				}
+				T cached = cache.get(entityClass, id);
+				if (cached != null) {
+					return cached;
+				}
+				long version = cache.version();
+				T entity = dc.get(entityClass, id);
+				if (entity != null) {
+					cache.putIfUnchanged(entityClass, id, entity, version);
+				}
+				return entity;
+			}
+		}));
+	}
+
+	/**
+	 * Returns the hit, miss and eviction counters of the entity cache, or null if no entity cache was configured.
+	 */
+	public CacheStats cacheStats() {
+		return cache == null ? null : cache.stats();
+	}
+
+	/**
+	 * Gets all entities with the given ids, querying up to 500 ids at once, instead of one query per id. Entities are
+	 * emitted in database order rather than the order of the ids, and ids that do not exist are skipped.
+	 */
+	public <T> Flowable<T> getAll(final Class<T> entityClass, final long[] ids) {
+		int chunks = (ids.length + MAX_IN_IDS - 1) / MAX_IN_IDS;
+		return Flowable.range(0, chunks).concatMap(new Function<Integer, Publisher<T>>() {
+			@Override
+			public Publisher<T> apply(Integer chunk) throws Exception {
+				int from = chunk * MAX_IN_IDS;
+				String[] args = new String[Math.min(MAX_IN_IDS, ids.length - from)];
+				for (int i = 0; i < args.length; i++) {
+					args[i] = Long.toString(ids[from + i]);
+				}
+				return query(entityClass, inSelection(args.length), args);
+			}
+		});
+	}
+
+	/**
+	 * Gets all entities with the ids emitted by the source, querying up to 500 ids at once as they come in.
+	 */
+	public <T> Flowable<T> getAll(final Class<T> entityClass, Flowable<Long> ids) {
+		return ids.buffer(MAX_IN_IDS).concatMap(new Function<List<Long>, Publisher<T>>() {
+			@Override
+			public Publisher<T> apply(List<Long> chunk) throws Exception {
+				String[] args = new String[chunk.size()];
+				for (int i = 0; i < args.length; i++) {
+					args[i] = chunk.get(i).toString();
+				}
+				return query(entityClass, inSelection(args.length), args);
+			}
+		});
+	}
+
+	/**
+	 * Gets all entities with the given ids, like getAll, collected into a map by id.
+	 */
+	public <T> Single<Map<Long, T>> getAllById(Class<T> entityClass, long[] ids) {
+		final EntityConverter<T> converter = cupboard.getEntityConverter(entityClass);
+		return getAll(entityClass, ids).collect(new Callable<Map<Long, T>>() {
+			@Override
+			public Map<Long, T> call() throws Exception {
+				return new HashMap<>();
+			}
+		}, new BiConsumer<Map<Long, T>, T>() {
+			@Override
+			public void accept(Map<Long, T> entities, T entity) throws Exception {
+				entities.put(converter.getId(entity), entity);
+			}
+		});
+	}
+
+	public <P, C> Flowable<Related<P, C>> withChildren(Flowable<P> parents, Class<C> childClass, String foreignKey) {
+		return withChildren(parents, childClass, foreignKey, DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * Pairs every parent with its children, being the entities of the child class of which the foreign key column holds
+	 * the parent's id. Children are loaded with one query per batch of parents, instead of one query per parent, and
+	 * the parents are emitted in their original order.
+	 * @param batchSize The number of parents of which the children are queried at once, at most 500
+	 */
+	public <P, C> Flowable<Related<P, C>> withChildren(Flowable<P> parents, final Class<C> childClass, final String foreignKey,
+			int batchSize) {
+		if (batchSize < 1 || batchSize > MAX_IN_IDS) {
+			throw new IllegalArgumentException("Batch size should be between 1 and " + MAX_IN_IDS);
+		}
+		final EntityConverter<C> childConverter = engine.meta(childClass).converter;
+		// Query exactly the converter's columns in its order, so the children convert by position and the foreign key is
+		// read from the row, at its index resolved once (case-insensitively, as SQL resolves it)
+		final String[] columns = columnNames(childConverter);
+		int index = -1;
+		for (int i = 0; i < columns.length && index < 0; i++) {
+			if (columns[i].equalsIgnoreCase(foreignKey)) {
+				index = i;
+			}
+		}
+		if (index < 0) {
+			throw new IllegalArgumentException("No column " + foreignKey + " in " + childClass);
+		}
+		final int foreignKeyIndex = index;
+		return parents.buffer(batchSize).concatMap(new Function<List<P>, Publisher<Related<P, C>>>() {
+			@SuppressWarnings("unchecked") // Cupboard EntityConverter type is lost as it only accepts Class<?>
+			@Override
+			public Publisher<Related<P, C>> apply(final List<P> batch) throws Exception {
+				final Long[] parentIds = new Long[batch.size()];
+				List<String> args = new ArrayList<>(batch.size());
+				for (int i = 0; i < batch.size(); i++) {
+					P parent = batch.get(i);
+					parentIds[i] = engine.meta((Class<P>) parent.getClass()).converter.getId(parent);
+					if (parentIds[i] != null) {
+						args.add(parentIds[i].toString());
+					}
+				}
+				if (args.isEmpty()) {
+					return Flowable.fromIterable(relate(batch, parentIds, Collections.<Long, List<C>>emptyMap()));
+				}
+				final DatabaseCompartment.QueryBuilder<C> children = dc.query(childClass)
+						.withProjection(columns)
+						.withSelection(foreignKey + " in (" + placeholders(args.size()) + ")", args.toArray(new String[args.size()]));
+				return onReader(Single.fromCallable(new Callable<Map<Long, List<C>>>() {
+					@Override
+					public Map<Long, List<C>> call() throws Exception {
+						Cursor cursor = children.getCursor();
+						try {
+							// Group by the foreign key value of the row
+							Map<Long, List<C>> grouped = new HashMap<>();
+							while (cursor.moveToNext()) {
+								Long parentId = cursor.isNull(foreignKeyIndex) ? null : cursor.getLong(foreignKeyIndex);
+								List<C> siblings = grouped.get(parentId);
+								if (siblings == null) {
+									siblings = new ArrayList<>();
+									grouped.put(parentId, siblings);
+								}
+								siblings.add(childConverter.fromCursor(cursor));
+							}
+							return grouped;
+						} finally {
+							cursor.close();
+						}
+					}
+				})).flattenAsFlowable(new Function<Map<Long, List<C>>, Iterable<Related<P, C>>>() {
+					@Override
+					public Iterable<Related<P, C>> apply(Map<Long, List<C>> children) throws Exception {
+						return relate(batch, parentIds, children);
+					}
+				});
+			}
+		});
+	}
+
+	private static <P, C> List<Related<P, C>> relate(List<P> parents, Long[] parentIds, Map<Long, List<C>> children) {
+		List<Related<P, C>> related = new ArrayList<>(parents.size());
+		for (int i = 0; i < parents.size(); i++) {
+			List<C> siblings = parentIds[i] == null ? null : children.get(parentIds[i]);
+			related.add(new Related<>(parents.get(i), siblings == null ? Collections.<C>emptyList() : siblings));
+		}
+		return related;
+	}
+
+	private static String[] columnNames(EntityConverter<?> converter) {
+		List<EntityConverter.Column> converterColumns = converter.getColumns();
+		String[] columns = new String[converterColumns.size()];
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = converterColumns.get(i).name;
+		}
+		return columns;
+	}
+
+	private static String inSelection(int count) {
+		return BaseColumns._ID + " in (" + placeholders(count) + ")";
+	}
+
+	private static String placeholders(int count) {
+		StringBuilder placeholders = new StringBuilder(count * 2);
+		for (int i = 0; i < count; i++) {
+			placeholders.append(i == 0 ? "?" : ",?");
+		}
+		return placeholders.toString();
+	}
+
+	public <T> Flowable<T> query(final Class<T> entityClass) {
+		return query(entityClass, new Callable<QueryResultIterable<T>>() {
+			@Override
+			public QueryResultIterable<T> call() throws Exception {
+				return dc.query(entityClass).query();
+			}
+		});
+	}
+
+	public <T> Flowable<T> query(final Class<T> entityClass, final String selection, final String... args) {
+		return query(entityClass, new Callable<QueryResultIterable<T>>() {
+			@Override
+			public QueryResultIterable<T> call() throws Exception {
+				return dc.query(entityClass).withSelection(selection, args).query();
+			}
+		});
+	}
+
+	public <T> Flowable<T> query(final DatabaseCompartment.QueryBuilder<T> preparedQuery) {
+		// Builder queries may use a projection, so their entities are never cached
+		return query(null, new Callable<QueryResultIterable<T>>() {
+			@Override
+			public QueryResultIterable<T> call() throws Exception {
+				return preparedQuery.query();
+			}
+		});
+	}
+
+	/**
+	 * Queries entities of which only the given columns are populated; all other fields keep their default value.
+	 */
+	public <T> Flowable<T> queryColumns(Class<T> entityClass, String[] columns, String selection, String... args) {
+		return query(dc.query(entityClass).withProjection(columns).withSelection(selection, args));
+	}
+
+	/**
+	 * Queries only the given columns into lightweight rows, without converting to entities at all.
+	 */
+	public <T> Flowable<Row> queryRows(Class<T> entityClass, String[] columns, String selection, String... args) {
+		return queryRows(dc.query(entityClass).withProjection(columns).withSelection(selection, args));
+	}
+
+	public <T> Flowable<Row> queryRows(final DatabaseCompartment.QueryBuilder<T> preparedQuery) {
+		// Rows are read one by one on request, and the cursor is closed on completion or cancellation
+		return onReader(Flowable.generate(new Callable<Cursor>() {
+			@Override
+			public Cursor call() throws Exception {
+				return preparedQuery.getCursor();
+			}
+		}, new BiConsumer<Cursor, Emitter<Row>>() {
+			@Override
+			public void accept(Cursor cursor, Emitter<Row> emitter) throws Exception {
+				if (!cursor.moveToNext()) {
+					emitter.onComplete();
+					return;
+				}
+				// The column names array is shared by all rows of the cursor
+				emitter.onNext(Row.read(cursor, cursor.getColumnNames()));
+			}
+		}, new Consumer<Cursor>() {
+			@Override
+			public void accept(Cursor cursor) throws Exception {
+				cursor.close();
+			}
+		}));
+	}
+
+	private <T> Flowable<T> query(final Class<T> cacheClass, final Callable<QueryResultIterable<T>> query) {
+		// Only open the cursor when subscribed to, on the reader scheduler (if any)
+		return onReader(Flowable.defer(new Callable<Publisher<T>>() {
+			@Override
+			public Publisher<T> call() throws Exception {
+				final long version = cache == null ? 0 : cache.version();
+				QueryResultIterable<T> iterable = query.call();
+				Flowable<T> entities = Flowable.fromIterable(iterable).compose(autoClose(iterable));
+				if (cache == null || cacheClass == null || inTransactionScope()) {
+					return entities;
+				}
+				final EntityConverter<T> converter = cupboard.getEntityConverter(cacheClass);
+				return entities.doOnNext(new Consumer<T>() {
+					@Override
+					public void accept(T entity) throws Exception {
+						Long id = converter.getId(entity);
+						if (id != null) {
+							cache.putIfUnchanged(cacheClass, id, entity, version);
+						}
+					}
+				});
+			}
+		}));
+	}
+
+	public <T> Single<List<T>> cachedQuery(Class<T> entityClass, String selection, String... args) {
+		return cachedQuery(entityClass, null, 0, selection, args);
+	}
+
+	/**
+	 * Queries a list of entities that, if a query cache was configured, is shared with all other subscribers of the
+	 * same query, including those that subscribe while it is still executing. The cached list is reused until some
+	 * entity of the same class changes. Because the list and its entities are shared, they should not be modified.
+	 * @param limit The maximum number of entities to query, or 0 to query all
+	 */
+	public <T> Single<List<T>> cachedQuery(final Class<T> entityClass, final String orderBy, final int limit, final String selection,
+			final String... args) {
+		final Callable<Single<List<T>>> query = new Callable<Single<List<T>>>() {
+			@Override
+			public Single<List<T>> call() throws Exception {
+				return onReader(Single.fromCallable(new Callable<List<T>>() {
+					@Override
+					public List<T> call() throws Exception {
+						DatabaseCompartment.QueryBuilder<T> builder = dc.query(entityClass).withSelection(selection, args).orderBy(orderBy);
+						if (limit > 0) {
+							builder.limit(limit);
+						}
+						return Collections.unmodifiableList(builder.list());
+					}
+				}));
+			}
+		};
+		return Single.defer(new Callable<SingleSource<List<T>>>() {
+			@Override
+			public SingleSource<List<T>> call() throws Exception {
+				if (queryCache == null || inTransactionScope()) {
+					return query.call();
+				}
+				return queryCache.get(entityClass, orderBy, limit, selection, args, query);
+			}
+		});
+	}
+
+	/**
+	 * Queries entities while converting them from their rows on multiple threads. The rows are read from the cursor on
+	 * the reader scheduler (if any) in chunks, of which up to parallelism chunks are converted concurrently on the
+	 * computation scheduler. This pays off for large results of entities that are expensive to convert.
+	 * @param ordered Whether to emit the entities in query order, or as soon as their chunk is converted
+	 */
+	public <T> Flowable<T> parallelQuery(Class<T> entityClass, int parallelism, boolean ordered, String selection, String... args) {
+		final EntityConverter<T> converter = engine.meta(entityClass).converter;
+		// Query exactly the converter's columns in its order, as it converts by column position
+		final String[] columns = columnNames(converter);
+		Flowable<List<Row>> chunks = queryRows(dc.query(entityClass).withProjection(columns).withSelection(selection, args))
+				.buffer(HYDRATION_CHUNK_SIZE);
+		Function<List<Row>, Publisher<List<T>>> hydrate = new Function<List<Row>, Publisher<List<T>>>() {
+			@Override
+			public Publisher<List<T>> apply(final List<Row> chunk) throws Exception {
+				return Flowable.fromCallable(new Callable<List<T>>() {
+					@Override
+					public List<T> call() throws Exception {
+						Cursor cursor = new RowCursor(columns, chunk);
+						try {
+							List<T> entities = new ArrayList<>(chunk.size());
+							while (cursor.moveToNext()) {
+								entities.add(converter.fromCursor(cursor));
+							}
+							return entities;
+						} finally {
+							cursor.close();
+						}
+					}
+				}).subscribeOn(Schedulers.computation());
+			}
+		};
+		Flowable<List<T>> hydrated = ordered ? chunks.concatMapEager(hydrate, parallelism, 1) : chunks.flatMap(hydrate, parallelism);
+		return hydrated.concatMapIterable(new Function<List<T>, Iterable<T>>() {
+			@Override
+			public Iterable<T> apply(List<T> entities) throws Exception {
+				return entities;
 			}
 		});
 	}
 
-	public <T> Flowable<T> query(Class<T> entityClass) {
-		QueryResultIterable<T> iterable = dc.query(entityClass).query();
-		return Flowable.fromIterable(iterable).compose(autoClose(iterable));
+	public <T> Flowable<T> pagedQuery(Class<T> entityClass, int pageSize) {
+		return pagedQuery(entityClass, pageSize, null, null);
+	}
+
+	public <T> Flowable<T> pagedQuery(final Class<T> entityClass, final int pageSize, final String orderBy, final String selection,
+			final String... args) {
+		// Every page is queried (and its cursor closed) only when downstream requested all items of the previous page
+		return onReader(Flowable.generate(new Callable<QueryPager<T>>() {
+			@Override
+			public QueryPager<T> call() throws Exception {
+				return new QueryPager<>(dc, entityClass, cupboard.getEntityConverter(entityClass), pageSize, orderBy, selection, args);
+			}
+		}, QueryPager.<T>emitter()));
 	}
 
-	public <T> Flowable<T> query(Class<T> entityClass, String selection, String... args) {
-		QueryResultIterable<T> iterable = dc.query(entityClass).withSelection(selection, args).query();
-		return Flowable.fromIterable(iterable).compose(autoClose(iterable));
+	public <T> Flowable<List<T>> observeQuery(Class<T> entityClass, String selection, String... args) {
+		return observeQuery(entityClass, DEFAULT_REQUERY_DEBOUNCE, TimeUnit.MILLISECONDS, backgroundReader(), selection, args);
 	}
 
-	public <T> Flowable<T> query(DatabaseCompartment.QueryBuilder<T> preparedQuery) {
-		QueryResultIterable<T> iterable = preparedQuery.query();
-		return Flowable.fromIterable(iterable).compose(autoClose(iterable));
+	public <T> Flowable<List<T>> observeQuery(final Class<T> entityClass, long debounce, TimeUnit unit, Scheduler scheduler,
+			final String selection, final String... args) {
+		final EntityConverter<T> converter = engine.meta(entityClass).converter;
+		// Query once directly and again after every (burst of) changes to the entity's table
+		return changes(entityClass)
+				.debounce(debounce, unit, scheduler)
+				.cast(Object.class)
+				.startWith(REQUERY)
+				// Never queue more than one requery: while a query runs, later changes collapse into a single one
+				.onBackpressureLatest()
+				.observeOn(scheduler, false, 1)
+				.map(new Function<Object, List<T>>() {
+					@Override
+					public List<T> apply(Object requery) throws Exception {
+						return dc.query(entityClass).withSelection(selection, args).list();
+					}
+				})
+				// Skip results of which all rows still have the same values
+				.distinctUntilChanged(new Function<List<T>, ResultValues>() {
+					@Override
+					public ResultValues apply(List<T> entities) throws Exception {
+						return ResultValues.of(converter, entities);
+					}
+				});
+	}
+
+	public <T> Flowable<ListDiff<T>> liveList(Class<T> entityClass, Predicate<? super T> filter, Comparator<? super T> order) {
+		return liveList(entityClass, filter, order, backgroundReader());
+	}
+
+	/**
+	 * Keeps the entities of a class that match the filter in memory, in order, and emits the diff of every change. The
+	 * filter is the only selection, as it is applied to the initial load and to every changed entity alike.
+	 */
+	public <T> Flowable<ListDiff<T>> liveList(final Class<T> entityClass, final Predicate<? super T> filter,
+			final Comparator<? super T> order, final Scheduler scheduler) {
+		return Flowable.defer(new Callable<Publisher<ListDiff<T>>>() {
+			@Override
+			public Publisher<ListDiff<T>> call() throws Exception {
+				// Every subscriber holds its own in-memory result, loaded once and then updated from the change events
+				final LiveList<T> live = new LiveList<>(cupboard.getEntityConverter(entityClass), filter, order, new Callable<List<T>>() {
+					@Override
+					public List<T> call() throws Exception {
+						return dc.query(entityClass).list();
+					}
+				});
+				return changes(entityClass)
+						.cast(Object.class)
+						.startWith(REQUERY)
+						// Every change is needed to keep the result correct, so none may be dropped
+						.onBackpressureBuffer()
+						.observeOn(scheduler)
+						.concatMapIterable(new Function<Object, Iterable<ListDiff<T>>>() {
+							@Override
+							public Iterable<ListDiff<T>> apply(Object change) throws Exception {
+								if (change == REQUERY) {
+									return live.reload();
+								}
+								//noinspection unchecked
+								return live.apply((DatabaseChange<T>) change);
+							}
+						});
+			}
+		});
 	}
 
 	private <T> FlowableTransformer<T, T> autoClose(final QueryResultIterable<T> iterable) {
@@ -265,18 +861,393 @@ public class RxDatabase {
 		};
 	}
 
+	private long[] queryIdsDirect(Class<?> entityClass, String selection, String... args) {
+		return queryLongsDirect(entityClass, BaseColumns._ID, null, selection, args);
+	}
+
+	private long[] queryLongsDirect(Class<?> entityClass, String column, String orderBy, String selection, String... args) {
+		Cursor cursor = queryColumnDirect(entityClass, column, orderBy, selection, args);
+		try {
+			long[] values = new long[cursor.getCount()];
+			int i = 0;
+			while (cursor.moveToNext()) {
+				values[i++] = cursor.getLong(0);
+			}
+			return values;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	private int[] queryIntsDirect(Class<?> entityClass, String column, String orderBy, String selection, String... args) {
+		Cursor cursor = queryColumnDirect(entityClass, column, orderBy, selection, args);
+		try {
+			int[] values = new int[cursor.getCount()];
+			int i = 0;
+			while (cursor.moveToNext()) {
+				values[i++] = cursor.getInt(0);
+			}
+			return values;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	private double[] queryDoublesDirect(Class<?> entityClass, String column, String orderBy, String selection, String... args) {
+		Cursor cursor = queryColumnDirect(entityClass, column, orderBy, selection, args);
+		try {
+			double[] values = new double[cursor.getCount()];
+			int i = 0;
+			while (cursor.moveToNext()) {
+				values[i++] = cursor.getDouble(0);
+			}
+			return values;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	private Cursor queryColumnDirect(Class<?> entityClass, String column, String orderBy, String selection, String... args) {
+		// Null values are read as 0 by the cursor
+		return db.query(cupboard.getTable(entityClass), new String[]{column}, selection, args, null, null, orderBy);
+	}
+
 	public <T> DatabaseCompartment.QueryBuilder<T> buildQuery(Class<T> entityClass) {
 		return dc.query(entityClass);
 	}
 
-	public <T> Single<Long> count(final Class<T> entityClass) {
-		return Single.fromCallable(new Callable<Long>() {
+	/**
+	 * Reads the ids of all matching entities straight from the cursor, without any entity conversion or boxing.
+	 */
+	public <T> Single<long[]> queryIds(final Class<T> entityClass, final String selection, final String... args) {
+		return onReader(Single.fromCallable(new Callable<long[]>() {
+			@Override
+			public long[] call() throws Exception {
+				return queryIdsDirect(entityClass, selection, args);
+			}
+		}));
+	}
+
+	/**
+	 * Reads a single (integer) column of all matching rows into a primitive array, optionally ordered. Null values are
+	 * read as 0.
+	 */
+	public <T> Single<long[]> queryLongs(final Class<T> entityClass, final String column, final String orderBy, final String selection,
+			final String... args) {
+		return onReader(Single.fromCallable(new Callable<long[]>() {
+			@Override
+			public long[] call() throws Exception {
+				return queryLongsDirect(entityClass, column, orderBy, selection, args);
+			}
+		}));
+	}
+
+	/**
+	 * Reads a single (integer) column of all matching rows into a primitive array, optionally ordered. Null values are
+	 * read as 0.
+	 */
+	public <T> Single<int[]> queryInts(final Class<T> entityClass, final String column, final String orderBy, final String selection,
+			final String... args) {
+		return onReader(Single.fromCallable(new Callable<int[]>() {
+			@Override
+			public int[] call() throws Exception {
+				return queryIntsDirect(entityClass, column, orderBy, selection, args);
+			}
+		}));
+	}
+
+	/**
+	 * Reads a single (real) column of all matching rows into a primitive array, optionally ordered. Null values are
+	 * read as 0.
+	 */
+	public <T> Single<double[]> queryDoubles(final Class<T> entityClass, final String column, final String orderBy, final String selection,
+			final String... args) {
+		return onReader(Single.fromCallable(new Callable<double[]>() {
+			@Override
+			public double[] call() throws Exception {
+				return queryDoublesDirect(entityClass, column, orderBy, selection, args);
+			}
+		}));
+	}
+
+	public <T> Single<Boolean> exists(final Class<T> entityClass, final long id) {
+		return onReader(Single.fromCallable(new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws Exception {
+				return statements.simpleQueryForLong(entityClass, StatementCache.Kind.EXISTS, null,
+						"select count(*) from " + quotedTable(entityClass) + " where " + BaseColumns._ID + " = ?", Long.toString(id)) > 0;
+			}
+		}));
+	}
+
+	public <T> Single<Long> count(Class<T> entityClass) {
+		return count(entityClass, null);
+	}
+
+	public <T> Single<Long> count(final Class<T> entityClass, final String selection, final String... args) {
+		return onReader(Single.fromCallable(new Callable<Long>() {
 			@Override
 			public Long call() throws Exception {
-				String table = cupboard.getTable(entityClass);
-				return db.compileStatement("select count(*) from " + table).simpleQueryForLong();
+				String where = TextUtils.isEmpty(selection) ? "" : " where " + selection;
+				return statements.simpleQueryForLong(entityClass, StatementCache.Kind.COUNT, selection,
+						"select count(*) from " + quotedTable(entityClass) + where, args);
 			}
-		});
+		}));
+	}
+
+	/**
+	 * Sums a column over all matching rows in SQL, returning 0 if there are none.
+	 */
+	public <T> Single<Double> sum(final Class<T> entityClass, final String column, final String selection, final String... args) {
+		return onReader(Single.fromCallable(new Callable<Double>() {
+			@Override
+			public Double call() throws Exception {
+				// Unlike sum(), total() is never null and does not overflow
+				return aggregateDirect(entityClass, "total(" + column + ")", selection, args);
+			}
+		}));
+	}
+
+	/**
+	 * Minimum of a column over all matching rows, or empty if there are none (or the column is always null).
+	 */
+	public <T> Maybe<Double> min(Class<T> entityClass, String column, String selection, String... args) {
+		return aggregate(entityClass, "min(" + column + ")", selection, args);
+	}
+
+	/**
+	 * Maximum of a column over all matching rows, or empty if there are none (or the column is always null).
+	 */
+	public <T> Maybe<Double> max(Class<T> entityClass, String column, String selection, String... args) {
+		return aggregate(entityClass, "max(" + column + ")", selection, args);
+	}
+
+	/**
+	 * Average of a column over all matching rows, or empty if there are none (or the column is always null).
+	 */
+	public <T> Maybe<Double> avg(Class<T> entityClass, String column, String selection, String... args) {
+		return aggregate(entityClass, "avg(" + column + ")", selection, args);
+	}
+
+	/**
+	 * Counts the matching rows per distinct value of the group column, in order of that value.
+	 */
+	public <T> Single<Map<String, Long>> countBy(final Class<T> entityClass, final String groupColumn, final String selection,
+			final String... args) {
+		return onReader(Single.fromCallable(new Callable<Map<String, Long>>() {
+			@Override
+			public Map<String, Long> call() throws Exception {
+				Cursor cursor = groupDirect(entityClass, groupColumn, "count(*)", selection, args);
+				try {
+					Map<String, Long> counts = new LinkedHashMap<>(cursor.getCount());
+					while (cursor.moveToNext()) {
+						counts.put(cursor.getString(0), cursor.getLong(1));
+					}
+					return counts;
+				} finally {
+					cursor.close();
+				}
+			}
+		}));
+	}
+
+	/**
+	 * Sums a column over the matching rows per distinct value of the group column, in order of that value.
+	 */
+	public <T> Single<Map<String, Double>> sumBy(final Class<T> entityClass, final String groupColumn, final String column,
+			final String selection, final String... args) {
+		return onReader(Single.fromCallable(new Callable<Map<String, Double>>() {
+			@Override
+			public Map<String, Double> call() throws Exception {
+				Cursor cursor = groupDirect(entityClass, groupColumn, "total(" + column + ")", selection, args);
+				try {
+					Map<String, Double> sums = new LinkedHashMap<>(cursor.getCount());
+					while (cursor.moveToNext()) {
+						sums.put(cursor.getString(0), cursor.getDouble(1));
+					}
+					return sums;
+				} finally {
+					cursor.close();
+				}
+			}
+		}));
+	}
+
+	private <T> Maybe<Double> aggregate(final Class<T> entityClass, final String expression, final String selection,
+			final String... args) {
+		return onReader(Maybe.fromCallable(new Callable<Double>() {
+			@Override
+			public Double call() throws Exception {
+				// A null result completes the Maybe without a value
+				return aggregateDirect(entityClass, expression, selection, args);
+			}
+		}));
+	}
+
+	private Double aggregateDirect(Class<?> entityClass, String expression, String selection, String... args) {
+		Cursor cursor = db.query(cupboard.getTable(entityClass), new String[]{expression}, selection, args, null, null, null);
+		try {
+			return cursor.moveToFirst() && !cursor.isNull(0) ? cursor.getDouble(0) : null;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	private Cursor groupDirect(Class<?> entityClass, String groupColumn, String expression, String selection, String... args) {
+		return db.query(cupboard.getTable(entityClass), new String[]{groupColumn, expression}, selection, args, groupColumn, null,
+				groupColumn);
+	}
+
+	private Scheduler backgroundReader() {
+		return readScheduler == null ? Schedulers.io() : readScheduler;
+	}
+
+	private boolean inTransactionScope() {
+		// Work assembled inside a transaction must stay on the thread that holds the transaction
+		return pendingChanges.get() != null;
+	}
+
+	private <T> Flowable<T> onReader(Flowable<T> flowable) {
+		return readScheduler == null || inTransactionScope() ? flowable : flowable.subscribeOn(readScheduler);
+	}
+
+	private <T> Single<T> onReader(Single<T> single) {
+		return readScheduler == null || inTransactionScope() ? single : single.subscribeOn(readScheduler);
+	}
+
+	private <T> Maybe<T> onReader(Maybe<T> maybe) {
+		return readScheduler == null || inTransactionScope() ? maybe : maybe.subscribeOn(readScheduler);
+	}
+
+	private <T> Single<T> onWriter(Single<T> single) {
+		return writeScheduler == null || inTransactionScope() ? single : single.subscribeOn(writeScheduler);
+	}
+
+	private Completable onWriter(Completable completable) {
+		return writeScheduler == null || inTransactionScope() ? completable : completable.subscribeOn(writeScheduler);
+	}
+
+	private <T> Flowable<T> observeOnWriter(Flowable<T> flowable) {
+		return writeScheduler == null || inTransactionScope() ? flowable : flowable.observeOn(writeScheduler);
+	}
+
+	/**
+	 * Releases the compiled statements cached for this database and empties its entity and query caches, all of which
+	 * are shared with other RxDatabase instances on it. The SQLiteDatabase itself is not closed, but should only be
+	 * closed after this, as open statements keep it from being closed completely.
+	 */
+	public void close() {
+		engine.close();
+	}
+
+	private String quotedTable(Class<?> entityClass) {
+		return engine.meta(entityClass).quotedTable;
+	}
+
+	/**
+	 * Runs the work returned by the function in a single database transaction. Changes are only published when the
+	 * transaction commits, and discarded if the work fails and everything is rolled back. The work is awaited on the
+	 * subscribing thread, which owns the transaction, so it should not switch to other threads itself.
+	 */
+	public Completable inTransaction(final Function<RxDatabase, ? extends CompletableSource> work) {
+		return onWriter(Completable.fromAction(new Action() {
+			@Override
+			public void run() throws Exception {
+				transactionDirect(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						Completable.wrap(work.apply(RxDatabase.this)).blockingAwait();
+						return null;
+					}
+				});
+			}
+		}));
+	}
+
+	/**
+	 * Runs the work returned by the function in a single database transaction and emits its result once committed.
+	 * Changes are only published when the transaction commits, and discarded if the work fails and everything is
+	 * rolled back. The work is awaited on the subscribing thread, which owns the transaction, so it should not
+	 * switch to other threads itself.
+	 */
+	public <R> Single<R> inTransactionSingle(final Function<RxDatabase, ? extends SingleSource<R>> work) {
+		return onWriter(Single.fromCallable(new Callable<R>() {
+			@Override
+			public R call() throws Exception {
+				return transactionDirect(new Callable<R>() {
+					@Override
+					public R call() throws Exception {
+						return Single.wrap(work.apply(RxDatabase.this)).blockingGet();
+					}
+				});
+			}
+		}));
+	}
+
+	private <R> R transactionDirect(Callable<R> work) throws Exception {
+		// Begin first, so a transaction that cannot be started never leaves this thread in a transaction scope
+		db.beginTransaction();
+		// Change events are held back until the outermost transaction on this thread commits
+		PendingChanges pending = pendingChanges.get();
+		boolean outermost = pending == null;
+		if (outermost) {
+			pending = new PendingChanges();
+			pendingChanges.set(pending);
+		}
+		boolean successful = false;
+		R result;
+		try {
+			result = work.call();
+			db.setTransactionSuccessful();
+			successful = true;
+		} finally {
+			try {
+				db.endTransaction();
+			} catch (RuntimeException e) {
+				// Commit itself failed, so nothing was persisted
+				successful = false;
+				throw e;
+			} finally {
+				if (!successful) {
+					// A failed (nested) transaction rolls back the outermost one as well
+					pending.failed = true;
+				}
+				if (outermost) {
+					pendingChanges.remove();
+					if (!pending.failed) {
+						for (DatabaseChange change : pending.changes) {
+							dispatch(change);
+						}
+					}
+				}
+			}
+		}
+		if (outermost && pending.failed) {
+			// Nested work failed and its error was handled, but the platform still rolled back the whole transaction
+			throw new SQLiteException("Transaction was rolled back because nested work failed");
+		}
+		return result;
+	}
+
+	private void publish(DatabaseChange change) {
+		PendingChanges pending = pendingChanges.get();
+		if (pending != null) {
+			// Inside a transaction: publish only after commit
+			pending.changes.add(change);
+		} else {
+			dispatch(change);
+		}
+	}
+
+	private void dispatch(DatabaseChange change) {
+		engine.dispatch(change);
+	}
+
+	static final class PendingChanges {
+
+		final List<DatabaseChange> changes = new ArrayList<>();
+		boolean failed;
+
 	}
 
 }
@@ -0,0 +1,148 @@
+package nl.nl2312.rxcupboard2;
+
+import android.annotation.TargetApi;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+final class StatementCache {
+
+	enum Kind {
+		COUNT, EXISTS, DELETE_BY_ID
+	}
+
+	private final SQLiteDatabase db;
+	private final Map<Key, SQLiteStatement> statements;
+
+	StatementCache(SQLiteDatabase db, final int maxSize) {
+		this.db = db;
+		// Access ordered, so the least recently used statement is evicted (and released) first
+		this.statements = new LinkedHashMap<Key, SQLiteStatement>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, SQLiteStatement> eldest) {
+				if (size() > maxSize) {
+					eldest.getValue().close();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	long simpleQueryForLong(Class<?> entityClass, Kind kind, String selection, String sql, String... args) {
+		Key key = new Key(entityClass, kind, selection);
+		SQLiteStatement statement = acquire(key, sql);
+		try {
+			bind(statement, args);
+			return statement.simpleQueryForLong();
+		} finally {
+			release(key, statement);
+		}
+	}
+
+	@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+	int executeUpdateDelete(Class<?> entityClass, Kind kind, String selection, String sql, String... args) {
+		Key key = new Key(entityClass, kind, selection);
+		SQLiteStatement statement = acquire(key, sql);
+		try {
+			bind(statement, args);
+			return statement.executeUpdateDelete();
+		} finally {
+			release(key, statement);
+		}
+	}
+
+	synchronized void clear() {
+		for (Iterator<SQLiteStatement> iterator = statements.values().iterator(); iterator.hasNext(); ) {
+			iterator.next().close();
+			iterator.remove();
+		}
+	}
+
+	private SQLiteStatement acquire(Key key, String sql) {
+		synchronized (this) {
+			if (!db.isOpen()) {
+				// Statements of a closed database can never be used again
+				clear();
+			}
+			// Take the statement out of the cache while in use, so no other thread binds it concurrently
+			SQLiteStatement cached = statements.remove(key);
+			if (cached != null) {
+				return cached;
+			}
+		}
+		return db.compileStatement(sql);
+	}
+
+	private void release(Key key, SQLiteStatement statement) {
+		synchronized (this) {
+			if (db.isOpen() && !statements.containsKey(key)) {
+				statements.put(key, statement);
+				return;
+			}
+		}
+		// Another thread already returned an equivalent statement (or the database closed)
+		statement.close();
+	}
+
+	private static void bind(SQLiteStatement statement, String[] args) {
+		statement.clearBindings();
+		if (args != null) {
+			for (int i = 0; i < args.length; i++) {
+				statement.bindString(i + 1, args[i]);
+			}
+		}
+	}
+
+	static void bind(SQLiteStatement statement, int index, Object value) {
+		if (value == null) {
+			statement.bindNull(index);
+		} else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			statement.bindLong(index, ((Number) value).longValue());
+		} else if (value instanceof Double || value instanceof Float) {
+			statement.bindDouble(index, ((Number) value).doubleValue());
+		} else if (value instanceof Boolean) {
+			statement.bindLong(index, (Boolean) value ? 1 : 0);
+		} else if (value instanceof byte[]) {
+			statement.bindBlob(index, (byte[]) value);
+		} else {
+			statement.bindString(index, value.toString());
+		}
+	}
+
+	private static final class Key {
+
+		final Class<?> entityClass;
+		final Kind kind;
+		final String selection;
+
+		Key(Class<?> entityClass, Kind kind, String selection) {
+			this.entityClass = entityClass;
+			this.kind = kind;
+			this.selection = selection == null ? "" : selection;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return kind == other.kind && entityClass.equals(other.entityClass) && selection.equals(other.selection);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * (31 * entityClass.hashCode() + kind.hashCode()) + selection.hashCode();
+		}
+
+	}
+
+}
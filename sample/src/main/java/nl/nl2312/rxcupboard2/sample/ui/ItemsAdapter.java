@@ -22,21 +22,12 @@ public class ItemsAdapter extends BaseAdapter {
 		this.items = new ArrayList<>();
 	}
 
-	public void add(Item item) {
-		this.items.add(item);
-		notifyDataSetChanged();
-	}
-
-	public void add(List<Item> items) {
+	public void set(List<Item> items) {
+		this.items.clear();
 		this.items.addAll(items);
 		notifyDataSetChanged();
 	}
 
-	public void remove(Item item) {
-		items.remove(item);
-		notifyDataSetChanged();
-	}
-
 	@Override
 	public int getCount() {
 		return items.size();
@@ -18,15 +18,14 @@ import io.reactivex.Flowable;
 import io.reactivex.FlowableEmitter;
 import io.reactivex.disposables.CompositeDisposable;
 import io.reactivex.functions.Consumer;
-import nl.nl2312.rxcupboard2.OnDatabaseChange;
 import nl.nl2312.rxcupboard2.RxCupboard;
+import nl.nl2312.rxcupboard2.RxCupboardOptions;
 import nl.nl2312.rxcupboard2.RxDatabase;
 import nl.nl2312.rxcupboard2.sample.CupboardDbHelper;
 import nl.nl2312.rxcupboard2.sample.R;
 import nl.nl2312.rxcupboard2.sample.model.Item;
 
 import static io.reactivex.android.schedulers.AndroidSchedulers.mainThread;
-import static io.reactivex.schedulers.Schedulers.io;
 
 public class MainActivity extends Activity {
 
@@ -50,44 +49,24 @@ public class MainActivity extends Activity {
 	protected void onStart() {
 		super.onStart();
 
-		// Get handle to your Cupboard database, using the default cupboard() instance
+		// Get handle to your Cupboard database, using the default cupboard() instance, that reads and writes in the background
 		final SQLiteDatabase db = CupboardDbHelper.getConnection(this);
-		final RxDatabase rxCupboard = RxCupboard.withDefault(db);
+		final RxDatabase rxCupboard = RxCupboard.withDefault(db, new RxCupboardOptions().backgroundSchedulers());
 
-		// Load all existing items form the database into the list view
+		// Load all existing items form the database into the list view, and reload them on any changes in the Item table
 		final ItemsAdapter adapter = new ItemsAdapter(this);
-		// Note that the underlying Cursor is created on calling query(), but individual Item objects are created when iterating (reactive pull)
+		itemsList.setAdapter(adapter);
 		subscriptions.add(
-				rxCupboard.query(Item.class)
-						.subscribeOn(io())
-						.toList()
+				rxCupboard.observeQuery(Item.class, null)
 						.observeOn(mainThread())
-						.subscribe(items -> {
-							adapter.add(items);
-							itemsList.setAdapter(adapter);
-						}, toastErrorAction));
-
-		// Add/remove items to/from the list view on any changes in the Item database table
-		subscriptions.add(
-				rxCupboard.changes(Item.class)
-						.subscribeOn(io())
-						.observeOn(mainThread())
-						.subscribe(new OnDatabaseChange<Item>() {
-							@Override
-							public void onInsert(Item entity) {
-								adapter.add(entity);
-							}
-
-							@Override
-							public void onDelete(Item entity) {
-								adapter.remove(entity);
-							}
-						}, toastErrorAction));
+						.subscribe(adapter::set, toastErrorAction));
 
 		// Remove an item from the database when it was clicked
 		subscriptions.add(
 				listItemClicks.map(adapter::getItem)
-						.subscribe(rxCupboard.delete()));
+						.flatMapSingle(rxCupboard::delete)
+						.observeOn(mainThread())
+						.subscribe(deleted -> {}, toastErrorAction));
 
 		// Enable the Add button only when text was entered
 		subscriptions.add(
@@ -105,7 +84,9 @@ public class MainActivity extends Activity {
 							return item;
 						})
 						.doOnNext(update -> addEdit.setText(null))
-						.subscribe(rxCupboard.put(), toastErrorAction));
+						.flatMapSingle(rxCupboard::put)
+						.observeOn(mainThread())
+						.subscribe(added -> {}, toastErrorAction));
 	}
 
 	private Consumer<Throwable> toastErrorAction = throwable -> Toast.makeText(MainActivity.this, throwable.toString(), Toast.LENGTH_SHORT).show();